@@ -25,16 +25,35 @@ import com.guichaguri.minimalftp.api.IUserAuthenticator;
 import com.guichaguri.minimalftp.api.ResponseException;
 import com.guichaguri.minimalftp.handler.ConnectionHandler;
 import com.guichaguri.minimalftp.handler.FileHandler;
+import com.guichaguri.minimalftp.io.AdaptiveBufferSize;
+import com.guichaguri.minimalftp.io.AsciiTranslator;
+import com.guichaguri.minimalftp.io.BlockInputStream;
+import com.guichaguri.minimalftp.io.BlockOutputStream;
+import com.guichaguri.minimalftp.io.BufferPool;
+import com.guichaguri.minimalftp.io.LineOffsetIndex;
+import com.guichaguri.minimalftp.io.ListingEncoder;
+import com.guichaguri.minimalftp.io.ReadAheadChannel;
+import com.guichaguri.minimalftp.io.TokenBucket;
+import com.guichaguri.minimalftp.io.WriteBehindChannel;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.Deflater;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
@@ -45,6 +64,12 @@ import javax.net.ssl.SSLSocketFactory;
  */
 public class FTPConnection implements Closeable {
 
+    private static final long MAX_TRANSFER_CHUNK = 8 * 1024 * 1024;
+    private static final int WRITE_BEHIND_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_AHEAD_BUFFER_SIZE = 64 * 1024;
+    private static final int LISTING_BUFFER_SIZE = 16 * 1024;
+    private static final int ASCII_BUFFER_SIZE = 16 * 1024;
+
     protected final Map<String, CommandInfo> commands = new HashMap<>();
     protected final Map<String, CommandInfo> siteCommands = new HashMap<>();
     protected final List<String> features = new ArrayList<>();
@@ -54,8 +79,11 @@ public class FTPConnection implements Closeable {
     protected Socket con;
     protected BufferedReader reader;
     protected BufferedWriter writer;
-    protected final ConnectionThread thread;
+    protected Thread thread = null;
     protected final ArrayDeque<Socket> dataConnections = new ArrayDeque<>();
+    protected final TokenBucket bucket;
+    protected String shareKey = null;
+    protected TokenBucket shareBucket = null;
 
     protected ConnectionHandler conHandler;
     protected FileHandler fileHandler;
@@ -78,10 +106,32 @@ public class FTPConnection implements Closeable {
      * @throws IOException When an I/O error occurs
      */
     public FTPConnection(FTPServer server, Socket con, int idleTimeout, int bufferSize) throws IOException {
+        this(server, con, con.getInputStream(), con.getOutputStream(), idleTimeout, bufferSize);
+
+        this.thread = server.createThread(new ConnectionThread());
+        this.thread.start();
+    }
+
+    /**
+     * Creates a new FTP connection without a thread.
+     *
+     * Subclasses that use this constructor are responsible for reading the commands
+     * and feeding them to {@link #process(String)}
+     *
+     * @param server The server which received the connection
+     * @param con The connection socket
+     * @param in The control input stream or {@code null} when the commands are read externally
+     * @param out The control output stream
+     * @param idleTimeout The timeout in milliseconds
+     * @param bufferSize The buffer size in bytes
+     * @throws IOException When an I/O error occurs
+     */
+    protected FTPConnection(FTPServer server, Socket con, InputStream in, OutputStream out, int idleTimeout, int bufferSize) throws IOException {
         this.server = server;
         this.con = con;
-        this.reader = new BufferedReader(new InputStreamReader(con.getInputStream()));
-        this.writer = new BufferedWriter(new OutputStreamWriter(con.getOutputStream()));
+        this.bucket = new TokenBucket(server.getConnectionBandwidthLimit());
+        this.reader = in != null ? new BufferedReader(new InputStreamReader(in)) : null;
+        this.writer = new BufferedWriter(new OutputStreamWriter(out));
 
         this.timeout = idleTimeout;
         this.bufferSize = bufferSize;
@@ -91,9 +141,6 @@ public class FTPConnection implements Closeable {
         this.conHandler = new ConnectionHandler(this);
         this.fileHandler = new FileHandler(this);
 
-        this.thread = new ConnectionThread();
-        this.thread.start();
-
         registerCommand("SITE", "SITE <command>", this::site);
         registerCommand("FEAT", "FEAT", this::feat, false);
         registerCommand("OPTS", "OPTS <option> [value]", this::opts);
@@ -145,6 +192,22 @@ public class FTPConnection implements Closeable {
         return bytesTransferred;
     }
 
+    /**
+     * Gets the bandwidth limit of this connection
+     * @return The limit in bytes per second or {@code 0} for no limit
+     */
+    public long getBandwidthLimit() {
+        return bucket.getRate();
+    }
+
+    /**
+     * Sets the bandwidth limit of this connection, which also affects the transfer in progress
+     * @param bytesPerSecond The limit in bytes per second or {@code 0} for no limit
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        bucket.setRate(bytesPerSecond);
+    }
+
     /**
      * Gets whether the connection is authenticated
      * @return {@code true} when it's authenticated, {@code false} otherwise
@@ -237,16 +300,22 @@ public class FTPConnection implements Closeable {
         if(con.isClosed()) return;
 
         Socket socket = null;
+        OutputStream out = null;
+        ByteBuffer translated = null;
         try {
             socket = conHandler.createDataSocket();
             dataConnections.add(socket);
-            OutputStream out = socket.getOutputStream();
+            out = openDataOutput(socket, 0);
 
-            Utils.write(out, data, data.length, conHandler.isAsciiMode());
+            if(conHandler.isAsciiMode()) {
+                translated = server.getBufferPool().acquireHeap(ASCII_BUFFER_SIZE * 2);
+                Utils.write(out, data, 0, data.length, new AsciiTranslator(), translated.array());
+            } else {
+                out.write(data);
+            }
             bytesTransferred += data.length;
 
-            out.flush();
-            Utils.closeQuietly(out);
+            out.close();
             Utils.closeQuietly(socket);
         } catch(SocketException ex) {
             throw new ResponseException(426, "Transfer aborted");
@@ -254,6 +323,56 @@ public class FTPConnection implements Closeable {
             throw new ResponseException(425, "An error occurred while transferring the data");
         } finally {
             onUpdate();
+            releaseBandwidthShare();
+            server.getBufferPool().release(translated);
+            if(out != null) Utils.closeQuietly(out);
+            if(socket != null) dataConnections.remove(socket);
+        }
+    }
+
+    /**
+     * Sends a listing through a data connection.
+     *
+     * The entries are encoded and sent while they're written, so the listing is never held in memory.
+     *
+     * @param writer The writer of the listing entries
+     * @throws ResponseException When an error occurs
+     */
+    public void sendListing(ListingEncoder.Writer writer) throws ResponseException {
+        if(con.isClosed()) return;
+
+        Socket socket = null;
+        OutputStream out = null;
+        ListingEncoder encoder = null;
+        boolean sent = false;
+        try {
+            socket = conHandler.createDataSocket();
+            dataConnections.add(socket);
+            out = openDataOutput(socket, 0);
+            encoder = new ListingEncoder(out, server.getBufferPool(), LISTING_BUFFER_SIZE, conHandler.isAsciiMode());
+
+            writer.write(encoder);
+            encoder.close();
+            bytesTransferred += encoder.getCount();
+
+            out.close();
+            Utils.closeQuietly(socket);
+            sent = true;
+        } catch(SocketException ex) {
+            throw new ResponseException(426, "Transfer aborted");
+        } catch(IOException ex) {
+            throw new ResponseException(425, "An error occurred while transferring the data");
+        } finally {
+            onUpdate();
+            releaseBandwidthShare();
+
+            if(!sent) {
+                // Resets the connection before anything else is written, so a partial listing doesn't look complete
+                if(socket != null) abortSocket(socket);
+                if(encoder != null) encoder.abort();
+            }
+
+            if(out != null) Utils.closeQuietly(out);
             if(socket != null) dataConnections.remove(socket);
         }
     }
@@ -264,23 +383,71 @@ public class FTPConnection implements Closeable {
      * @throws ResponseException When an error occurs
      */
     public void sendData(InputStream in) throws ResponseException {
+        sendData(in, 0);
+    }
+
+    /**
+     * Sends a stream through a data connection
+     * @param in The input stream
+     * @param offset The position of the stream in the file, used by the restart markers
+     * @throws ResponseException When an error occurs
+     */
+    public void sendData(InputStream in, long offset) throws ResponseException {
+        if(in instanceof FileInputStream && !conHandler.isAsciiMode()) {
+            // Binary transfers from files can be sent directly by the kernel
+            sendData(((FileInputStream)in).getChannel());
+            return;
+        }
+
         if(con.isClosed()) return;
 
+        BufferPool pool = server.getBufferPool();
+        ByteBuffer buf = null, translatedBuf = null;
         Socket socket = null;
+        OutputStream out = null;
+        ReadAheadChannel readAhead = null;
         try {
             socket = conHandler.createDataSocket();
             dataConnections.add(socket);
-            OutputStream out = socket.getOutputStream();
+            out = openDataOutput(socket, offset);
+
+            // A restart between a CR and a LF continues with the LF alone
+            boolean afterCR = in instanceof LineOffsetIndex.RestartInputStream && ((LineOffsetIndex.RestartInputStream)in).isAfterCR();
+
+            readAhead = createReadAhead(Channels.newChannel(in), -1);
+            if(readAhead != null) in = Channels.newInputStream(readAhead);
 
-            byte[] buffer = new byte[bufferSize];
+            AdaptiveBufferSize size = createBufferSize(-1);
+            boolean ascii = conHandler.isAsciiMode();
+            AsciiTranslator translator = new AsciiTranslator(afterCR);
             int len;
-            while((len = in.read(buffer)) != -1) {
-                Utils.write(out, buffer, len, conHandler.isAsciiMode());
+
+            while(true) {
+                if(buf == null) {
+                    buf = pool.acquireHeap(size.getSize());
+                    if(ascii) translatedBuf = pool.acquireHeap(size.getSize() * 2);
+                }
+
+                if((len = in.read(buf.array(), 0, buf.limit())) == -1) break;
+
+                throttle(len);
+
+                if(ascii) {
+                    byte[] translated = translatedBuf.array();
+                    out.write(translated, 0, translator.toNetwork(buf.array(), 0, len, translated, 0));
+                } else {
+                    out.write(buf.array(), 0, len);
+                }
                 bytesTransferred += len;
+
+                if(size.update(len)) {
+                    pool.release(buf);
+                    pool.release(translatedBuf);
+                    buf = translatedBuf = null;
+                }
             }
 
-            out.flush();
-            Utils.closeQuietly(out);
+            out.close();
             Utils.closeQuietly(in);
             Utils.closeQuietly(socket);
         } catch(SocketException ex) {
@@ -289,34 +456,376 @@ public class FTPConnection implements Closeable {
             throw new ResponseException(425, "An error occurred while transferring the data");
         } finally {
             onUpdate();
+            releaseBandwidthShare();
+            if(out != null) Utils.closeQuietly(out);
+            if(readAhead != null) Utils.closeQuietly(readAhead);
+            pool.release(buf);
+            pool.release(translatedBuf);
             if(socket != null) dataConnections.remove(socket);
         }
     }
 
+    /**
+     * Sends a channel through a data connection.
+     *
+     * The data is sent as is, as in the binary mode.
+     * File channels are sent directly by the kernel whenever possible.
+     *
+     * @param in The input channel
+     * @throws ResponseException When an error occurs
+     */
+    public void sendData(ReadableByteChannel in) throws ResponseException {
+        sendData(in, -1);
+    }
+
+    /**
+     * Sends part of a channel through a data connection.
+     *
+     * The data is sent as is, as in the binary mode.
+     * File channels are sent directly by the kernel whenever possible.
+     *
+     * @param in The input channel
+     * @param length The maximum amount of bytes to send or {@code -1} to send until the end of the channel
+     * @throws ResponseException When an error occurs
+     */
+    public void sendData(ReadableByteChannel in, long length) throws ResponseException {
+        if(con.isClosed()) return;
+
+        BufferPool pool = server.getBufferPool();
+        ByteBuffer buffer = null;
+        Socket socket = null;
+        WritableByteChannel out = null;
+        ReadAheadChannel readAhead = null;
+        try {
+            socket = conHandler.createDataSocket();
+            dataConnections.add(socket);
+            SocketChannel channel = isStreamMode() ? socket.getChannel() : null;
+
+            if(channel != null && in instanceof FileChannel) {
+                transferFile((FileChannel)in, channel, length);
+            } else {
+                long offset = 0, remaining = length;
+
+                if(in instanceof SeekableByteChannel) {
+                    SeekableByteChannel file = (SeekableByteChannel)in;
+                    offset = file.position();
+                    remaining = Math.max(file.size() - offset, 0);
+                    if(length >= 0) remaining = Math.min(remaining, length);
+                }
+
+                out = channel != null ? channel : Channels.newChannel(openDataOutput(socket, offset));
+
+                readAhead = createReadAhead(in, length);
+                if(readAhead != null) in = readAhead;
+
+                AdaptiveBufferSize size = createBufferSize(remaining);
+                buffer = pool.acquire(size.getSize());
+                long left = length < 0 ? Long.MAX_VALUE : length;
+
+                while(left > 0) {
+                    if(buffer.remaining() > left) buffer.limit((int)left);
+                    if(in.read(buffer) == -1) break;
+
+                    buffer.flip();
+                    int len = buffer.remaining();
+                    bytesTransferred += len;
+                    left -= len;
+                    throttle(len);
+
+                    while(buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+
+                    if(size.update(len)) {
+                        pool.release(buffer);
+                        buffer = pool.acquire(size.getSize());
+                    } else {
+                        buffer.clear();
+                    }
+                }
+
+                out.close();
+            }
+
+            Utils.closeQuietly(in);
+            Utils.closeQuietly(socket);
+        } catch(SocketException ex) {
+            throw new ResponseException(426, "Transfer aborted");
+        } catch(IOException ex) {
+            throw new ResponseException(425, "An error occurred while transferring the data");
+        } finally {
+            onUpdate();
+            releaseBandwidthShare();
+            if(out != null) Utils.closeQuietly(out);
+            if(readAhead != null) Utils.closeQuietly(readAhead);
+            pool.release(buffer);
+            if(socket != null) dataConnections.remove(socket);
+        }
+    }
+
+    /**
+     * Wraps the source of a download, so the next chunks are read in another thread while the previous ones are sent
+     * @param in The source channel
+     * @param length The maximum amount of bytes to read or {@code -1} to read until the end of the channel
+     * @return The read-ahead channel or {@code null} if it's disabled
+     */
+    protected ReadAheadChannel createReadAhead(ReadableByteChannel in, long length) {
+        int buffers = server.getReadAheadBuffers();
+        if(buffers <= 0) return null;
+
+        return new ReadAheadChannel(in, server.getBufferPool(), buffers, READ_AHEAD_BUFFER_SIZE, length, server::createThread);
+    }
+
+    /**
+     * Creates the buffer size policy of a transfer
+     * @param size The amount of bytes to be transferred or {@code -1} if unknown
+     * @return The buffer size policy
+     */
+    protected AdaptiveBufferSize createBufferSize(long size) {
+        int min = server.getMinBufferSize();
+        int max = (int)Math.max(min, Math.min(server.getMaxBufferSize(), getTransferChunk()));
+        return new AdaptiveBufferSize(min, max, bufferSize, size);
+    }
+
+    /**
+     * Gets the bandwidth buckets that limit the transfers of this connection
+     * @return The connection, user and global (or fair share) buckets
+     */
+    protected TokenBucket[] getBandwidthBuckets() {
+        String username = conHandler.isAuthenticated() ? conHandler.getUsername() : null;
+
+        if(shareBucket == null && server.getFairBandwidthSharing()) {
+            // Anonymous connections are grouped by address, so multiple sessions from the same client share the same slice
+            IUserAuthenticator auth = server.getAuthenticator();
+            int weight = auth != null ? auth.getBandwidthWeight(this, username) : 1;
+
+            shareKey = username != null ? "user:" + username : "address:" + getAddress().getHostAddress();
+            shareBucket = server.getFairShareScheduler().acquire(shareKey, weight);
+        }
+
+        // The fair share slices already add up to the global limit
+        TokenBucket global = shareBucket != null ? shareBucket : server.getGlobalBucket();
+
+        if(username != null) {
+            return new TokenBucket[] {bucket, server.getUserBucket(username), global};
+        }
+        return new TokenBucket[] {bucket, global};
+    }
+
+    /**
+     * Releases the fair share slice taken by the current transfer
+     */
+    protected void releaseBandwidthShare() {
+        if(shareBucket == null) return;
+
+        server.getFairShareScheduler().release(shareKey);
+        shareKey = null;
+        shareBucket = null;
+    }
+
+    /**
+     * Waits until the bandwidth limits allow the transfer of an amount of data
+     * @param bytes The amount of bytes
+     * @throws IOException When the thread is interrupted
+     */
+    protected void throttle(long bytes) throws IOException {
+        long wait = 0;
+
+        for(TokenBucket b : getBandwidthBuckets()) {
+            wait = Math.max(wait, b.reserve(bytes));
+        }
+
+        if(wait <= 0) return;
+
+        try {
+            Thread.sleep(wait / 1_000_000, (int)(wait % 1_000_000));
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The transfer was interrupted");
+        }
+    }
+
+    /**
+     * Gets the maximum amount of data moved at once, so the throttling stays smooth
+     * @return The amount of bytes
+     */
+    protected long getTransferChunk() {
+        long rate = 0;
+
+        for(TokenBucket b : getBandwidthBuckets()) {
+            long r = b.getRate();
+            if(r > 0 && (rate == 0 || r < rate)) rate = r;
+        }
+
+        if(rate == 0) return MAX_TRANSFER_CHUNK;
+
+        // Around 100 milliseconds worth of data
+        return Math.max(4096, Math.min(MAX_TRANSFER_CHUNK, rate / 10));
+    }
+
+    /**
+     * Whether the data is transferred in stream mode, without any encoding
+     * @return {@code true} if the current transfer mode is stream
+     */
+    protected boolean isStreamMode() {
+        return conHandler.getTransferMode() == 'S';
+    }
+
+    /**
+     * Opens the output of a data connection, encoding the data according to the transfer mode
+     * @param socket The data socket
+     * @param offset The position of the data in the file, used by the restart markers
+     * @return The output stream, which has to be closed to complete the transfer
+     * @throws IOException When an error occurs
+     */
+    protected OutputStream openDataOutput(Socket socket, long offset) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        char mode = conHandler.getTransferMode();
+
+        if(mode == 'Z') {
+            out = server.getZlibPool().deflate(out, getCompressionLevel(), bufferSize);
+        } else if(mode == 'B') {
+            out = new BlockOutputStream(out, offset, server.getRestartMarkerInterval(), server.getMaxBufferSize());
+        }
+
+        return out;
+    }
+
+    /**
+     * Opens the input of a data connection, decoding the data according to the transfer mode
+     * @param socket The data socket
+     * @return The input stream
+     * @throws IOException When an error occurs
+     */
+    protected InputStream openDataInput(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+
+        char mode = conHandler.getTransferMode();
+
+        if(mode == 'Z') {
+            in = server.getZlibPool().inflate(in, bufferSize);
+        } else if(mode == 'B') {
+            in = new BlockInputStream(in);
+        }
+
+        return in;
+    }
+
+    /**
+     * Gets the compression level for the deflate mode, which can be changed through {@code OPTS MODE Z LEVEL}
+     * @return The compression level, from 0 to 9
+     */
+    protected int getCompressionLevel() {
+        try {
+            int level = Integer.parseInt(getOption("MODE Z LEVEL"));
+            return Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, level));
+        } catch(NumberFormatException ex) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+    }
+
+    /**
+     * Sends a file to a socket channel without copying it to the heap
+     * @param file The file channel, positioned where the transfer starts
+     * @param socket The socket channel
+     * @param length The maximum amount of bytes to send or {@code -1} to send until the end of the file
+     * @throws IOException When an error occurs
+     */
+    protected void transferFile(FileChannel file, SocketChannel socket, long length) throws IOException {
+        long position = file.position();
+        long size = file.size();
+
+        if(length >= 0) size = Math.min(size, position + length);
+
+        while(position < size) {
+            long count = file.transferTo(position, Math.min(size - position, getTransferChunk()), socket);
+            if(count <= 0) break; // The file was truncated
+
+            position += count;
+            bytesTransferred += count;
+            throttle(count);
+        }
+    }
+
     /**
      * Receives a stream through the data connection
      * @param out The output stream
      * @throws ResponseException When an error occurs
      */
     public void receiveData(OutputStream out) throws ResponseException {
+        receiveData(out, 0);
+    }
+
+    /**
+     * Receives a stream through the data connection
+     * @param out The output stream
+     * @param offset The position of the stream in the file, used to acknowledge the restart markers
+     * @throws ResponseException When an error occurs
+     */
+    public void receiveData(OutputStream out, long offset) throws ResponseException {
+        if(out instanceof FileOutputStream && !conHandler.isAsciiMode()) {
+            // Binary transfers to files can be received without copying to the heap
+            receiveData(((FileOutputStream)out).getChannel());
+            return;
+        }
+
         if(con.isClosed()) return;
 
+        BufferPool pool = server.getBufferPool();
+        ByteBuffer buf = null, translatedBuf = null;
         Socket socket = null;
+        InputStream in = null;
+        WriteBehindChannel writeBehind = null;
         try {
             socket = conHandler.createDataSocket();
             dataConnections.add(socket);
-            InputStream in = socket.getInputStream();
+            in = openDataInput(socket);
+
+            writeBehind = createWriteBehind(Channels.newChannel(out));
+            if(writeBehind != null) out = Channels.newOutputStream(writeBehind);
 
-            byte[] buffer = new byte[bufferSize];
+            AdaptiveBufferSize size = createBufferSize(-1);
+            boolean ascii = conHandler.isAsciiMode();
+            AsciiTranslator translator = new AsciiTranslator();
+            long position = offset;
             int len;
-            while((len = in.read(buffer)) != -1) {
-                out.write(buffer, 0, len);
+
+            while(true) {
+                if(buf == null) {
+                    buf = pool.acquireHeap(size.getSize());
+                    if(ascii) translatedBuf = pool.acquireHeap(size.getSize() + 1);
+                }
+
+                if((len = in.read(buf.array(), 0, buf.limit())) == -1) break;
+
+                acknowledgeMarker(in, position);
+                throttle(len);
+
+                if(ascii) {
+                    byte[] translated = translatedBuf.array();
+                    int length = translator.fromNetwork(buf.array(), 0, len, translated, 0);
+                    out.write(translated, 0, length);
+                    position += length;
+                } else {
+                    out.write(buf.array(), 0, len);
+                    position += len;
+                }
                 bytesTransferred += len;
+
+                if(size.update(len)) {
+                    pool.release(buf);
+                    pool.release(translatedBuf);
+                    buf = translatedBuf = null;
+                }
+            }
+
+            if(ascii) {
+                out.write(translatedBuf.array(), 0, translator.finish(translatedBuf.array(), 0));
             }
 
             out.flush();
+            if(writeBehind != null) writeBehind.close(); // Throws the errors of the writer thread
             Utils.closeQuietly(out);
-            Utils.closeQuietly(in);
             Utils.closeQuietly(socket);
         } catch(SocketException ex) {
             throw new ResponseException(426, "Transfer aborted");
@@ -324,10 +833,147 @@ public class FTPConnection implements Closeable {
             throw new ResponseException(425, "An error occurred while transferring the data");
         } finally {
             onUpdate();
+            releaseBandwidthShare();
+            if(in != null) Utils.closeQuietly(in);
+            if(writeBehind != null) Utils.closeQuietly(writeBehind);
+            pool.release(buf);
+            pool.release(translatedBuf);
             if(socket != null) dataConnections.remove(socket);
         }
     }
 
+    /**
+     * Receives a channel through the data connection.
+     *
+     * The data is received as is, as in the binary mode.
+     * File channels are written directly from the socket whenever possible.
+     *
+     * @param out The output channel
+     * @throws ResponseException When an error occurs
+     */
+    public void receiveData(WritableByteChannel out) throws ResponseException {
+        if(con.isClosed()) return;
+
+        BufferPool pool = server.getBufferPool();
+        ByteBuffer buffer = null;
+        Socket socket = null;
+        ReadableByteChannel in = null;
+        WriteBehindChannel writeBehind = null;
+        try {
+            socket = conHandler.createDataSocket();
+            dataConnections.add(socket);
+            SocketChannel channel = isStreamMode() ? socket.getChannel() : null;
+            FileChannel file = out instanceof FileChannel ? (FileChannel)out : null;
+
+            // The file channel can't write past the end of the file, in which case the buffer is used instead
+            if(channel != null && file != null && file.position() <= file.size()) {
+                receiveFile(channel, file);
+            } else {
+                InputStream data = channel != null ? null : openDataInput(socket);
+                in = channel != null ? channel : Channels.newChannel(data);
+                long position = out instanceof SeekableByteChannel ? ((SeekableByteChannel)out).position() : 0;
+
+                writeBehind = createWriteBehind(out);
+                if(writeBehind != null) out = writeBehind;
+
+                AdaptiveBufferSize size = createBufferSize(-1);
+                buffer = pool.acquire(size.getSize());
+
+                while(in.read(buffer) != -1) {
+                    acknowledgeMarker(data, position);
+
+                    buffer.flip();
+                    int len = buffer.remaining();
+                    bytesTransferred += len;
+                    position += len;
+                    throttle(len);
+
+                    while(buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+
+                    if(size.update(len)) {
+                        pool.release(buffer);
+                        buffer = pool.acquire(size.getSize());
+                    } else {
+                        buffer.clear();
+                    }
+                }
+            }
+
+            if(writeBehind != null) writeBehind.close(); // Throws the errors of the writer thread
+            Utils.closeQuietly(out);
+            Utils.closeQuietly(socket);
+        } catch(SocketException ex) {
+            throw new ResponseException(426, "Transfer aborted");
+        } catch(IOException ex) {
+            throw new ResponseException(425, "An error occurred while transferring the data");
+        } finally {
+            onUpdate();
+            releaseBandwidthShare();
+            if(in != null) Utils.closeQuietly(in);
+            if(writeBehind != null) Utils.closeQuietly(writeBehind);
+            pool.release(buffer);
+            if(socket != null) dataConnections.remove(socket);
+        }
+    }
+
+    /**
+     * Wraps the destination of an upload, so the disk writes happen in another thread and don't stall the network reads
+     * @param out The destination channel
+     * @return The write-behind channel or {@code null} if it's disabled
+     */
+    protected WriteBehindChannel createWriteBehind(WritableByteChannel out) {
+        int buffers = server.getWriteBehindBuffers();
+        if(buffers <= 0) return null;
+
+        return new WriteBehindChannel(out, server.getBufferPool(), buffers, WRITE_BEHIND_BUFFER_SIZE, server::createThread);
+    }
+
+    /**
+     * Replies to a restart marker received in block mode
+     * @param in The data input
+     * @param position The file position where the data before the marker ends
+     */
+    protected void acknowledgeMarker(InputStream in, long position) {
+        if(!(in instanceof BlockInputStream)) return;
+
+        String marker = ((BlockInputStream)in).pollMarker();
+        if(marker != null) sendResponse(110, "MARK " + marker + " = " + position);
+    }
+
+    /**
+     * Receives a file from a socket channel without copying it to the heap
+     * @param socket The socket channel
+     * @param file The file channel, positioned where the transfer starts
+     * @throws IOException When an error occurs
+     */
+    protected void receiveFile(SocketChannel socket, FileChannel file) throws IOException {
+        long position = file.position();
+        long count;
+
+        while((count = file.transferFrom(socket, position, getTransferChunk())) > 0) {
+            position += count;
+            bytesTransferred += count;
+            throttle(count);
+        }
+
+        file.position(position);
+    }
+
+    /**
+     * Closes a data socket with a reset instead of the normal end of the stream
+     * @param socket The data socket
+     */
+    private static void abortSocket(Socket socket) {
+        try {
+            socket.setSoLinger(true, 0);
+        } catch(IOException ex) {
+            // The socket is closed anyway
+        }
+        Utils.closeQuietly(socket);
+    }
+
     /**
      * Aborts all data transfers
      */
@@ -538,14 +1184,25 @@ public class FTPConnection implements Closeable {
             return;
         }
 
-        String option = opts[0].toUpperCase();
+        // Option names can have multiple words, such as "MODE Z LEVEL", so the longest match is used
+        String option = null;
+        int length;
+
+        for(length = opts.length; length > 0; length--) {
+            String name = String.join(" ", Arrays.copyOfRange(opts, 0, length)).toUpperCase();
+
+            if(options.containsKey(name)) {
+                option = name;
+                break;
+            }
+        }
 
-        if(!options.containsKey(option)) {
+        if(option == null) {
             sendResponse(501, "No option found");
-        } else if(opts.length < 2) {
+        } else if(length == opts.length) {
             sendResponse(200, options.get(option));
         } else {
-            options.put(option, opts[1].toUpperCase());
+            options.put(option, String.join(" ", Arrays.copyOfRange(opts, length, opts.length)).toUpperCase());
             sendResponse(200, "Option updated");
         }
     }
@@ -590,8 +1247,8 @@ public class FTPConnection implements Closeable {
         try {
             line = reader.readLine();
         } catch(SocketTimeoutException ex) {
-            // Check if the socket has timed out
-            if(!dataConnections.isEmpty() && (System.currentTimeMillis() - lastUpdate) >= timeout) {
+            // Idle connections are closed while no transfer is running, as in the selector engine
+            if(dataConnections.isEmpty() && (System.currentTimeMillis() - lastUpdate) >= timeout) {
                 Utils.closeQuietly(this);
             }
             return;
@@ -624,7 +1281,7 @@ public class FTPConnection implements Closeable {
 
         if(close) con.close();
 
-        if(!thread.isInterrupted()) {
+        if(thread != null && !thread.isInterrupted()) {
             thread.interrupt();
         }
     }
@@ -652,7 +1309,7 @@ public class FTPConnection implements Closeable {
     /**
      * Thread that processes this connection
      */
-    private class ConnectionThread extends Thread {
+    private class ConnectionThread implements Runnable {
         @Override
         public void run() {
             while(!con.isClosed()) {
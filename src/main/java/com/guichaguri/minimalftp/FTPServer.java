@@ -17,16 +17,35 @@
 package com.guichaguri.minimalftp;
 
 import com.guichaguri.minimalftp.api.IFTPListener;
+import com.guichaguri.minimalftp.api.IFileSystem;
 import com.guichaguri.minimalftp.api.IUserAuthenticator;
 import com.guichaguri.minimalftp.impl.NoOpAuthenticator;
+import com.guichaguri.minimalftp.io.BufferPool;
+import com.guichaguri.minimalftp.io.FairShareScheduler;
+import com.guichaguri.minimalftp.io.TokenBucket;
+import com.guichaguri.minimalftp.io.ZlibPool;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLContext;
 
 /**
@@ -40,10 +59,32 @@ public class FTPServer implements Closeable {
 
     protected IUserAuthenticator auth = null;
     protected int idleTimeout = 5 * 60 * 1000; // 5 minutes
-    protected int bufferSize = 1024;
+    protected int bufferSize = 16 * 1024;
+    protected int minBufferSize = 4 * 1024;
+    protected int maxBufferSize = 1024 * 1024;
+    protected int socketBufferSize = 0;
+    protected long restartMarkerInterval = 1024 * 1024;
+    protected String[] inlineDigests = new String[0];
+    protected int writeBehindBuffers = 4;
+    protected int readAheadBuffers = 4;
+    protected BufferPool bufferPool = BufferPool.getDefault();
+    protected final ZlibPool zlibPool = new ZlibPool(64);
+    protected final TokenBucket globalBucket = new TokenBucket(0);
+    protected final FairShareScheduler fairShareScheduler = new FairShareScheduler(0);
+    protected boolean fairBandwidthSharing = false;
+    protected final Map<String, TokenBucket> userBuckets = new ConcurrentHashMap<>();
+    protected final Map<String, Long> userBandwidthLimits = new ConcurrentHashMap<>();
+    protected long userBandwidthLimit = 0;
+    protected long connectionBandwidthLimit = 0;
     protected SSLContext ssl = null;
     protected boolean explicitSecurity = true;
     protected boolean passiveModeEnabled = true;
+    protected boolean virtualThreads = false;
+    protected int maxTransfers = 0;
+    protected int maxQueuedTransfers = 0;
+    protected ThreadPoolExecutor transferExecutor = null;
+    protected int digestParallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    protected ForkJoinPool digestPool = null;
 
     protected ServerSocket socket = null;
     protected ServerThread serverThread = null;
@@ -168,6 +209,103 @@ public class FTPServer implements Closeable {
         this.passiveModeEnabled = available;
     }
 
+    /**
+     * Gets whether connections and transfers run on virtual threads.
+     *
+     * @return {@code true} for virtual threads, {@code false} for platform threads
+     */
+    public boolean getVirtualThreadsEnabled() {
+        return virtualThreads;
+    }
+
+    /**
+     * Sets whether connections and transfers run on virtual threads.
+     *
+     * Virtual threads allow a large amount of mostly idle connections without
+     * allocating an operating system thread for each one of them.
+     *
+     * This option requires Java 21 or newer.
+     *
+     * Changing this option only affects new connections and transfers.
+     *
+     * @param enabled {@code true} to use virtual threads, {@code false} to use platform threads
+     * @throws UnsupportedOperationException When the runtime does not support virtual threads
+     */
+    public void setVirtualThreadsEnabled(boolean enabled) {
+        if(enabled && !VirtualThreads.isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+        }
+        this.virtualThreads = enabled;
+    }
+
+    /**
+     * Sets the limit of simultaneous data transfers in the whole server.
+     *
+     * Transfers over the limit wait in a queue. When the queue is also full,
+     * the transfer is rejected with a 425 response.
+     *
+     * The default value is {@code 0}, which doesn't limit transfers.
+     *
+     * Changing this option only affects new transfers.
+     *
+     * @param maxTransfers The maximum amount of running transfers or {@code 0} for no limit
+     * @param maxQueued The maximum amount of transfers waiting to run
+     */
+    public synchronized void setTransferLimit(int maxTransfers, int maxQueued) {
+        this.maxTransfers = Math.max(maxTransfers, 0);
+        this.maxQueuedTransfers = Math.max(maxQueued, 0);
+
+        if(transferExecutor != null) {
+            // Transfers already submitted will still run
+            transferExecutor.shutdown();
+            transferExecutor = null;
+        }
+    }
+
+    /**
+     * Gets the maximum amount of files hashed at the same time
+     * @return The number of threads
+     */
+    public int getDigestParallelism() {
+        return digestParallelism;
+    }
+
+    /**
+     * Sets the maximum amount of files hashed at the same time by multi-file commands, such as MMD5.
+     *
+     * Hashing is limited by the disk and the CPU, so a low value keeps the transfers from starving.
+     *
+     * The default value is half of the available processors.
+     *
+     * @param parallelism The number of threads
+     */
+    public synchronized void setDigestParallelism(int parallelism) {
+        if(parallelism < 1) throw new IllegalArgumentException("There should be at least one thread");
+        this.digestParallelism = parallelism;
+
+        if(digestPool != null) {
+            // Digests already submitted will still run
+            digestPool.shutdown();
+            digestPool = null;
+        }
+    }
+
+    /**
+     * Gets the amount of data transfers currently running
+     * @return The number of active transfers
+     */
+    public synchronized int getActiveTransfers() {
+        return transferExecutor != null ? transferExecutor.getActiveCount() : 0;
+    }
+
+    /**
+     * Gets the amount of data transfers waiting for a free slot
+     * @return The number of queued transfers
+     */
+    public synchronized int getQueuedTransfers() {
+        return transferExecutor != null ? transferExecutor.getQueue().size() : 0;
+    }
+
     /**
      * Sets the idle timeout in milliseconds
      *
@@ -184,7 +322,10 @@ public class FTPServer implements Closeable {
     /**
      * Sets the default buffer size in bytes
      *
-     * The default value is 1024 bytes
+     * Transfers start with this size when the file size is unknown,
+     * and adapt it within the buffer size limits.
+     *
+     * The default value is 16 kilobytes
      *
      * @param bufferSize The buffer size in bytes
      */
@@ -192,6 +333,333 @@ public class FTPServer implements Closeable {
         this.bufferSize = bufferSize;
     }
 
+    /**
+     * Gets the minimum buffer size of the transfers
+     * @return The size in bytes
+     */
+    public int getMinBufferSize() {
+        return minBufferSize;
+    }
+
+    /**
+     * Gets the maximum buffer size of the transfers
+     * @return The size in bytes
+     */
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * Sets the limits for the buffer size of the transfers.
+     *
+     * Each transfer starts with a buffer based on the file size and grows it according to the throughput.
+     * Using the same value for both limits disables the adaptive sizing.
+     *
+     * The default limits are 4 kilobytes and 1 megabyte
+     *
+     * @param minBufferSize The minimum size in bytes
+     * @param maxBufferSize The maximum size in bytes
+     */
+    public void setBufferSizeLimits(int minBufferSize, int maxBufferSize) {
+        if(minBufferSize < 1 || maxBufferSize < minBufferSize) {
+            throw new IllegalArgumentException("Invalid buffer size limits");
+        }
+        this.minBufferSize = minBufferSize;
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    /**
+     * Gets the size of the send and receive buffers of the data sockets
+     * @return The size in bytes or {@code 0} if the system decides it
+     */
+    public int getSocketBufferSize() {
+        return socketBufferSize;
+    }
+
+    /**
+     * Sets the size of the send and receive buffers of the data sockets.
+     *
+     * By default, the sizes are left to the operating system, which can tune them
+     * for each connection. Setting a size disables that tuning on most systems.
+     *
+     * @param socketBufferSize The size in bytes or {@code 0} to let the system decide it
+     */
+    public void setSocketBufferSize(int socketBufferSize) {
+        if(socketBufferSize < 0) throw new IllegalArgumentException("The socket buffer size can't be negative");
+        this.socketBufferSize = socketBufferSize;
+    }
+
+    /**
+     * Gets the pool that provides the buffers for the data transfers
+     * @return The buffer pool
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Sets the pool that provides the buffers for the data transfers.
+     *
+     * By default, all servers share {@link BufferPool#getDefault()}, which keeps up to 32 MB of heap buffers.
+     * A dedicated pool can use direct buffers or a different memory cap.
+     *
+     * The pool is also used by listings, ASCII restarts and a {@code ListingCacheFileSystem}.
+     * File systems calculate digests on their own, with buffers from {@link BufferPool#getDefault()}.
+     *
+     * @param bufferPool The buffer pool
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        if(bufferPool == null) throw new NullPointerException("The buffer pool can't be null");
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Gets the amount of bytes between restart markers in block mode
+     * @return The interval in bytes
+     */
+    public long getRestartMarkerInterval() {
+        return restartMarkerInterval;
+    }
+
+    /**
+     * Sets the amount of bytes between restart markers sent in block mode.
+     *
+     * The markers contain the file offset, which clients can use in the REST command to resume a transfer.
+     *
+     * The default value is 1 megabyte
+     *
+     * @param restartMarkerInterval The interval in bytes or {@code 0} to disable the markers
+     */
+    public void setRestartMarkerInterval(long restartMarkerInterval) {
+        this.restartMarkerInterval = restartMarkerInterval;
+    }
+
+    /**
+     * Gets the amount of buffers read ahead from the file system during a download
+     * @return The number of buffers
+     */
+    public int getReadAheadBuffers() {
+        return readAheadBuffers;
+    }
+
+    /**
+     * Sets the amount of buffers read ahead from the file system during a download.
+     *
+     * Downloads that can't be sent directly by the kernel are read by a separate thread,
+     * so a slow file system, such as a network storage, doesn't leave the connection idle during every read.
+     *
+     * The default value is 4 buffers of 64 kilobytes
+     *
+     * @param buffers The number of buffers or {@code 0} to read in the same thread
+     */
+    public void setReadAheadBuffers(int buffers) {
+        this.readAheadBuffers = Math.max(buffers, 0);
+    }
+
+    /**
+     * Gets the amount of buffers waiting to be written to the disk during an upload
+     * @return The number of buffers
+     */
+    public int getWriteBehindBuffers() {
+        return writeBehindBuffers;
+    }
+
+    /**
+     * Sets the amount of buffers waiting to be written to the disk during an upload.
+     *
+     * Uploads that can't be received directly into a file channel are written by a separate thread,
+     * so the network and the disk can work at the same time. When all buffers are waiting, the upload
+     * stops reading from the network until the disk catches up.
+     *
+     * The default value is 4 buffers of 64 kilobytes
+     *
+     * @param buffers The number of buffers or {@code 0} to write in the same thread
+     */
+    public void setWriteBehindBuffers(int buffers) {
+        this.writeBehindBuffers = Math.max(buffers, 0);
+    }
+
+    /**
+     * Gets the digest algorithms calculated while files are uploaded
+     * @return The algorithm names
+     */
+    public String[] getInlineDigests() {
+        return inlineDigests.clone();
+    }
+
+    /**
+     * Sets the digest algorithms calculated while files are uploaded.
+     *
+     * The digests of whole files are offered to the file system through {@link IFileSystem#putDigest(Object, String, byte[])},
+     * so a file system that caches them can answer a verification command right after the upload without reading the file back.
+     * Binary uploads won't be received without copying to the heap while this is enabled.
+     *
+     * By default, no digests are calculated
+     *
+     * @param algorithms The algorithm names, such as "MD5", "SHA-1" or "SHA-256"
+     */
+    public void setInlineDigests(String... algorithms) {
+        for(String algorithm : algorithms) {
+            try {
+                MessageDigest.getInstance(algorithm);
+            } catch(NoSuchAlgorithmException ex) {
+                throw new IllegalArgumentException("Unsupported digest algorithm: " + algorithm, ex);
+            }
+        }
+
+        this.inlineDigests = algorithms.clone();
+    }
+
+    /**
+     * Gets the pool of deflaters and inflaters used by the compressed transfer mode
+     * @return The zlib pool
+     */
+    public ZlibPool getZlibPool() {
+        return zlibPool;
+    }
+
+    /**
+     * Gets the bandwidth limit shared by all transfers
+     * @return The limit in bytes per second or {@code 0} for no limit
+     */
+    public long getBandwidthLimit() {
+        return globalBucket.getRate();
+    }
+
+    /**
+     * Sets the bandwidth limit shared by all transfers.
+     *
+     * Changing this option affects the transfers in progress
+     *
+     * @param bytesPerSecond The limit in bytes per second or {@code 0} for no limit
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        globalBucket.setRate(bytesPerSecond);
+        fairShareScheduler.setCapacity(bytesPerSecond);
+    }
+
+    /**
+     * Gets whether the bandwidth limit is split fairly between the users
+     * @return {@code true} if fair sharing is enabled
+     */
+    public boolean getFairBandwidthSharing() {
+        return fairBandwidthSharing;
+    }
+
+    /**
+     * Sets whether the bandwidth limit is split fairly between the active users.
+     *
+     * Each user gets a slice of the limit proportional to its weight, given by
+     * {@link IUserAuthenticator#getBandwidthWeight(FTPConnection, String)}, no matter how many
+     * connections it opens. Anonymous connections are grouped by address.
+     *
+     * Only has effect when a bandwidth limit is set through {@link #setBandwidthLimit(long)}.
+     * Changing this option only affects new transfers.
+     *
+     * @param enabled Whether fair sharing is enabled
+     */
+    public void setFairBandwidthSharing(boolean enabled) {
+        this.fairBandwidthSharing = enabled;
+    }
+
+    /**
+     * Gets the default bandwidth limit for each user
+     * @return The limit in bytes per second or {@code 0} for no limit
+     */
+    public long getUserBandwidthLimit() {
+        return userBandwidthLimit;
+    }
+
+    /**
+     * Sets the default bandwidth limit for each user, shared by all of their connections.
+     *
+     * Changing this option affects the transfers in progress
+     *
+     * @param bytesPerSecond The limit in bytes per second or {@code 0} for no limit
+     */
+    public void setUserBandwidthLimit(long bytesPerSecond) {
+        this.userBandwidthLimit = bytesPerSecond;
+
+        for(Map.Entry<String, TokenBucket> entry : userBuckets.entrySet()) {
+            if(!userBandwidthLimits.containsKey(entry.getKey())) {
+                entry.getValue().setRate(bytesPerSecond);
+            }
+        }
+    }
+
+    /**
+     * Sets the bandwidth limit for a specific user, overriding the default user limit.
+     *
+     * Changing this option affects the transfers in progress
+     *
+     * @param username The username
+     * @param bytesPerSecond The limit in bytes per second, {@code 0} for no limit
+     *                       or a negative number to use the default user limit
+     */
+    public void setUserBandwidthLimit(String username, long bytesPerSecond) {
+        if(bytesPerSecond < 0) {
+            userBandwidthLimits.remove(username);
+            bytesPerSecond = userBandwidthLimit;
+        } else {
+            userBandwidthLimits.put(username, bytesPerSecond);
+        }
+
+        TokenBucket bucket = userBuckets.get(username);
+        if(bucket != null) bucket.setRate(bytesPerSecond);
+    }
+
+    /**
+     * Gets the default bandwidth limit for each connection
+     * @return The limit in bytes per second or {@code 0} for no limit
+     */
+    public long getConnectionBandwidthLimit() {
+        return connectionBandwidthLimit;
+    }
+
+    /**
+     * Sets the default bandwidth limit for each connection.
+     *
+     * Changing this option affects all open connections.
+     * Individual connections can be changed through {@link FTPConnection#setBandwidthLimit(long)}
+     *
+     * @param bytesPerSecond The limit in bytes per second or {@code 0} for no limit
+     */
+    public void setConnectionBandwidthLimit(long bytesPerSecond) {
+        this.connectionBandwidthLimit = bytesPerSecond;
+
+        synchronized(connections) {
+            for(FTPConnection con : connections) {
+                con.setBandwidthLimit(bytesPerSecond);
+            }
+        }
+    }
+
+    /**
+     * Gets the token bucket shared by all transfers
+     * @return The global bucket
+     */
+    public TokenBucket getGlobalBucket() {
+        return globalBucket;
+    }
+
+    /**
+     * Gets the scheduler that splits the bandwidth limit between the users
+     * @return The fair share scheduler
+     */
+    public FairShareScheduler getFairShareScheduler() {
+        return fairShareScheduler;
+    }
+
+    /**
+     * Gets the token bucket shared by all transfers of a user
+     * @param username The username
+     * @return The user bucket
+     */
+    public TokenBucket getUserBucket(String username) {
+        return userBuckets.computeIfAbsent(username,
+                u -> new TokenBucket(userBandwidthLimits.getOrDefault(u, userBandwidthLimit)));
+    }
+
     /**
      * Adds an {@link IFTPListener} to the server
      * @param listener The listener instance
@@ -233,7 +701,7 @@ public class FTPServer implements Closeable {
         if(auth == null) throw new NullPointerException("The Authenticator is null");
         if(socket != null) throw new IOException("Server already started");
 
-        socket = Utils.createServer(port, 50, address, ssl, !explicitSecurity);
+        socket = createServerSocket(address, port);
 
         serverThread = new ServerThread();
         serverThread.setDaemon(true);
@@ -265,7 +733,7 @@ public class FTPServer implements Closeable {
         if(auth == null) throw new NullPointerException("The Authenticator is null");
         if(socket != null) throw new IOException("Server already started");
 
-        socket = Utils.createServer(port, 50, address, ssl, !explicitSecurity);
+        socket = createServerSocket(address, port);
 
         while(!socket.isClosed()) {
             update();
@@ -283,6 +751,105 @@ public class FTPServer implements Closeable {
         }
     }
 
+    /**
+     * Creates the server socket that will accept the control connections.
+     *
+     * Feel free to override this method with your own custom implementation
+     *
+     * @param address The server address or {@code null} for a local address
+     * @param port The server port or {@code 0} to automatically allocate the port
+     * @return The server socket
+     * @throws IOException When an error occurs while binding the socket
+     */
+    protected ServerSocket createServerSocket(InetAddress address, int port) throws IOException {
+        return Utils.createServer(port, 50, address, ssl, !explicitSecurity);
+    }
+
+    /**
+     * Creates an unstarted thread for a connection or a data transfer.
+     *
+     * @param task The thread task
+     * @return The thread
+     */
+    public Thread createThread(Runnable task) {
+        return virtualThreads ? VirtualThreads.newThread(task) : new Thread(task);
+    }
+
+    /**
+     * Runs a data transfer, respecting the transfer limit.
+     *
+     * @param task The transfer task
+     * @throws RejectedExecutionException When the server can't accept more transfers
+     * @see #setTransferLimit(int, int)
+     */
+    public void executeTransfer(Runnable task) {
+        ThreadPoolExecutor executor;
+
+        synchronized(this) {
+            if(transferExecutor == null) transferExecutor = createTransferExecutor();
+            executor = transferExecutor;
+        }
+
+        executor.execute(task);
+    }
+
+    /**
+     * Calculates a digest in the digest pool, respecting the digest parallelism.
+     *
+     * @param task The digest task
+     * @param <T> The result type
+     * @return The future result
+     * @see #setDigestParallelism(int)
+     */
+    public <T> Future<T> submitDigest(Callable<T> task) {
+        ForkJoinPool pool;
+
+        synchronized(this) {
+            if(digestPool == null) digestPool = new ForkJoinPool(digestParallelism);
+            pool = digestPool;
+        }
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        pool.execute(() -> {
+            // Skips digests that were cancelled while waiting
+            if(future.isDone()) return;
+
+            try {
+                future.complete(task.call());
+            } catch(Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Creates the executor which runs the data transfers.
+     *
+     * @return The executor
+     */
+    protected ThreadPoolExecutor createTransferExecutor() {
+        if(maxTransfers <= 0) {
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), this::createThread);
+        }
+
+        BlockingQueue<Runnable> queue;
+
+        if(maxQueuedTransfers > 0) {
+            queue = new ArrayBlockingQueue<>(maxQueuedTransfers);
+        } else {
+            queue = new SynchronousQueue<>();
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxTransfers, maxTransfers, 60, TimeUnit.SECONDS,
+                queue, this::createThread);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * Creates a {@link FTPConnection} instance.
      *
@@ -354,6 +921,19 @@ public class FTPServer implements Closeable {
             }
             connections.clear();
         }
+
+        // Lets the running transfers finish, but stops accepting new ones
+        synchronized(this) {
+            if(transferExecutor != null) {
+                transferExecutor.shutdown();
+                transferExecutor = null;
+            }
+
+            if(digestPool != null) {
+                digestPool.shutdown();
+                digestPool = null;
+            }
+        }
     }
 
     /**
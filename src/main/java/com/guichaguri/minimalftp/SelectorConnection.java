@@ -0,0 +1,378 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp;
+
+import com.guichaguri.minimalftp.SelectorFTPServer.EventLoop;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Represents a FTP user connected to a {@link SelectorFTPServer}.
+ *
+ * Commands are read by an event loop and processed in order by the server worker pool.
+ *
+ * @author Guilherme Chaguri
+ */
+public class SelectorConnection extends FTPConnection {
+
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_PENDING_LINES = 16;
+    private static final int MAX_PENDING_REPLY_BYTES = 64 * 1024;
+
+    protected final SocketChannel channel;
+    protected final EventLoop loop;
+    private final ChannelOutputStream output;
+    private SelectionKey key = null;
+
+    private final ArrayDeque<String> lines = new ArrayDeque<>();
+    private boolean processing = false;
+    private boolean paused = false;
+    private boolean blocking = false;
+    private boolean backlogged = false;
+
+    private byte[] line = new byte[128];
+    private int lineLength = 0;
+    private boolean lineOverflow = false;
+
+    /**
+     * Creates a new FTP connection.
+     *
+     * Initialized by a {@link SelectorFTPServer}
+     *
+     * @param server The server which received the connection
+     * @param channel The non-blocking connection channel
+     * @param loop The event loop that will read the commands
+     * @param idleTimeout The timeout in milliseconds
+     * @param bufferSize The buffer size in bytes
+     * @throws IOException When an I/O error occurs
+     */
+    SelectorConnection(SelectorFTPServer server, SocketChannel channel, EventLoop loop, int idleTimeout, int bufferSize) throws IOException {
+        this(server, channel, loop, new ChannelOutputStream(channel), idleTimeout, bufferSize);
+    }
+
+    private SelectorConnection(SelectorFTPServer server, SocketChannel channel, EventLoop loop,
+                               ChannelOutputStream output, int idleTimeout, int bufferSize) throws IOException {
+        super(server, channel.socket(), null, output, idleTimeout, bufferSize);
+        this.channel = channel;
+        this.loop = loop;
+        this.output = output;
+    }
+
+    /**
+     * Registers the channel in the event loop selector
+     * @param selector The selector
+     * @throws IOException When the channel is already closed
+     */
+    void register(Selector selector) throws IOException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        output.attach(key);
+    }
+
+    /**
+     * Handles the ready operations of the channel. Called by the event loop.
+     * @param key The selection key
+     * @param buffer The event loop read buffer
+     */
+    void handle(SelectionKey key, ByteBuffer buffer) {
+        try {
+            if(key.isValid() && key.isWritable()) {
+                output.flushPending();
+
+                if(backlogged && !output.isBacklogged()) {
+                    // The client read the queued replies, so it can send commands again
+                    backlogged = false;
+                    updateReading();
+                }
+            }
+            if(key.isValid() && key.isReadable()) {
+                read(buffer);
+            }
+        } catch(IOException | CancelledKeyException ex) {
+            Utils.closeQuietly(this);
+        }
+    }
+
+    /**
+     * Whether the connection has been idle for longer than the timeout
+     * @param now The current time in milliseconds
+     * @return {@code true} if the connection should be disconnected
+     */
+    boolean isIdle(long now) {
+        synchronized(lines) {
+            if(processing) return false;
+        }
+        return timeout > 0 && dataConnections.isEmpty() && now - lastUpdate >= timeout;
+    }
+
+    private void read(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int length = channel.read(buffer);
+
+        if(length < 0) {
+            Utils.closeQuietly(this);
+            return;
+        }
+
+        buffer.flip();
+
+        while(buffer.hasRemaining()) {
+            byte b = buffer.get();
+
+            if(b == '\n') {
+                decodeLine();
+            } else if(lineLength < MAX_LINE_LENGTH) {
+                if(lineLength == line.length) line = Arrays.copyOf(line, line.length * 2);
+                line[lineLength++] = b;
+            } else {
+                lineOverflow = true;
+            }
+        }
+    }
+
+    private void decodeLine() {
+        int length = lineLength;
+        if(length > 0 && line[length - 1] == '\r') length--;
+
+        boolean overflow = lineOverflow;
+        String cmd = overflow ? null : new String(line, 0, length);
+
+        lineLength = 0;
+        lineOverflow = false;
+        if(line.length > 1024) line = new byte[128];
+
+        if(overflow) {
+            sendResponse(500, "Command line too long");
+            return;
+        }
+
+        if(!backlogged && output.isBacklogged()) {
+            // Stops reading until the client reads the queued replies
+            backlogged = true;
+            updateReading();
+        }
+
+        synchronized(lines) {
+            lines.add(cmd);
+
+            if(lines.size() >= MAX_PENDING_LINES && !paused) {
+                // Stops reading until the queued commands are processed
+                paused = true;
+                updateReading();
+            }
+
+            if(processing) return;
+            processing = true;
+        }
+
+        ((SelectorFTPServer)server).execute(this::processLines);
+    }
+
+    /**
+     * Processes all queued commands. Runs in a worker thread
+     */
+    private void processLines() {
+        while(true) {
+            String cmd;
+
+            synchronized(lines) {
+                cmd = lines.poll();
+
+                if(cmd == null) {
+                    processing = false;
+
+                    if(paused) {
+                        paused = false;
+                        loop.execute(this::updateReading);
+                    }
+                    return;
+                }
+            }
+
+            onUpdate();
+            if(!cmd.isEmpty()) process(cmd);
+
+            if(conHandler.shouldStop()) {
+                Utils.closeQuietly(this);
+                return;
+            }
+
+            if(blocking) {
+                runBlocking();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads from the client only while neither the commands nor the replies are queued up. Runs in the event loop
+     */
+    private void updateReading() {
+        if(key == null || !key.isValid()) return;
+
+        boolean read;
+        synchronized(lines) {
+            read = !paused && !backlogged;
+        }
+
+        if(read) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        } else {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Keeps processing the connection in the current thread, as the thread-based connections do
+     */
+    private void runBlocking() {
+        while(!con.isClosed()) {
+            update();
+        }
+
+        try {
+            close(false);
+        } catch(IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    @Override
+    public void enableSSL(SSLContext context) throws IOException {
+        // SSL sockets can't work on top of non-blocking channels,
+        // so the connection leaves the event loop and switches to blocking mode
+        CompletableFuture<Void> detached = new CompletableFuture<>();
+
+        loop.execute(() -> {
+            try {
+                key.cancel();
+                loop.selector.selectNow(); // Deregisters the channel
+                channel.configureBlocking(true);
+                detached.complete(null);
+            } catch(Exception ex) {
+                detached.completeExceptionally(ex);
+            }
+        });
+
+        try {
+            detached.get();
+        } catch(InterruptedException | ExecutionException ex) {
+            throw new IOException("Couldn't switch the connection to blocking mode", ex);
+        }
+
+        output.detach();
+        super.enableSSL(context);
+        blocking = true;
+    }
+
+    /**
+     * Output stream that writes to a non-blocking channel, queueing what can't be written right away
+     */
+    private static class ChannelOutputStream extends OutputStream {
+
+        private final SocketChannel channel;
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+        private long pendingBytes = 0;
+        private SelectionKey key = null;
+
+        ChannelOutputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        synchronized void attach(SelectionKey key) {
+            this.key = key;
+            if(!pending.isEmpty()) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        synchronized void detach() throws IOException {
+            key = null;
+
+            // The channel is now blocking, so we can flush everything
+            while(!pending.isEmpty()) {
+                channel.write(pending.poll());
+            }
+            pendingBytes = 0;
+        }
+
+        /**
+         * Whether the client is not reading the replies, leaving too much data queued
+         * @return {@code true} if the queued data is over the limit
+         */
+        synchronized boolean isBacklogged() {
+            return pendingBytes > MAX_PENDING_REPLY_BYTES;
+        }
+
+        /**
+         * Writes the queued data. Called by the event loop when the channel is writable
+         * @throws IOException When an I/O error occurs
+         */
+        synchronized void flushPending() throws IOException {
+            while(!pending.isEmpty()) {
+                ByteBuffer buf = pending.peek();
+                pendingBytes -= channel.write(buf);
+
+                if(buf.hasRemaining()) return;
+                pending.poll();
+            }
+
+            if(key != null && key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+
+            if(pending.isEmpty()) {
+                if(channel.isBlocking()) {
+                    while(buf.hasRemaining()) channel.write(buf);
+                    return;
+                }
+
+                channel.write(buf);
+                if(!buf.hasRemaining()) return;
+            }
+
+            // The socket buffer is full, the event loop will write the rest
+            ByteBuffer copy = ByteBuffer.allocate(buf.remaining());
+            copy.put(buf).flip();
+            pending.add(copy);
+            pendingBytes += copy.remaining();
+
+            if(key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                key.selector().wakeup();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp;
+
+import com.guichaguri.minimalftp.api.IUserAuthenticator;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * FTP Server that multiplexes the control connections through selectors.
+ *
+ * Instead of a thread per connection, a small pool of event loops reads the commands
+ * and a worker pool only runs them while they're being processed. Idle connections
+ * only hold a few buffers.
+ *
+ * Connections that upgrade to TLS through the AUTH command are handed off to a dedicated thread,
+ * and implicit TLS servers fall back to the thread-per-connection model.
+ *
+ * @author Guilherme Chaguri
+ */
+public class SelectorFTPServer extends FTPServer {
+
+    protected int eventLoopCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    protected EventLoop[] eventLoops = null;
+    protected ExecutorService workers = null;
+    private int nextEventLoop = 0;
+
+    /**
+     * Creates a new server
+     */
+    public SelectorFTPServer() {
+
+    }
+
+    /**
+     * Creates a new server
+     * @param auth An authenticator
+     */
+    public SelectorFTPServer(IUserAuthenticator auth) {
+        super(auth);
+    }
+
+    /**
+     * Gets the amount of event loops
+     * @return The number of event loops
+     */
+    public int getEventLoops() {
+        return eventLoopCount;
+    }
+
+    /**
+     * Sets the amount of event loops that will process the control connections.
+     *
+     * The default value is half of the available processors.
+     *
+     * Changing this option only affects when the server starts listening.
+     *
+     * @param eventLoops The number of event loops
+     */
+    public void setEventLoops(int eventLoops) {
+        if(eventLoops < 1) throw new IllegalArgumentException("There should be at least one event loop");
+        this.eventLoopCount = eventLoops;
+    }
+
+    @Override
+    protected ServerSocket createServerSocket(InetAddress address, int port) throws IOException {
+        if(!explicitSecurity) {
+            // Implicit TLS requires blocking sockets, so every connection needs its own thread
+            return super.createServerSocket(address, port);
+        }
+
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.socket().bind(new InetSocketAddress(address, port), 50);
+
+        if(virtualThreads) {
+            workers = VirtualThreads.newExecutor();
+        } else {
+            workers = Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "FTP Worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        eventLoops = new EventLoop[eventLoopCount];
+        for(int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i);
+        }
+
+        // The adaptor keeps the accept loop working as a regular server socket
+        return channel.socket();
+    }
+
+    @Override
+    protected FTPConnection createConnection(Socket socket) throws IOException {
+        SocketChannel channel = socket.getChannel();
+
+        if(channel == null) {
+            return super.createConnection(socket);
+        }
+
+        EventLoop[] loops = eventLoops;
+        if(loops == null) throw new IOException("The server is closed");
+
+        EventLoop loop = loops[Math.floorMod(nextEventLoop++, loops.length)];
+        channel.configureBlocking(false);
+
+        SelectorConnection con = new SelectorConnection(this, channel, loop, idleTimeout, bufferSize);
+        loop.register(con);
+        return con;
+    }
+
+    /**
+     * Runs a task from a connection in the worker pool
+     * @param task The task
+     */
+    protected void execute(Runnable task) {
+        workers.execute(task);
+    }
+
+    @Override
+    protected void dispose() {
+        super.dispose();
+
+        if(eventLoops != null) {
+            for(EventLoop loop : eventLoops) {
+                Utils.closeQuietly(loop);
+            }
+            eventLoops = null;
+        }
+
+        if(workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
+    }
+
+    /**
+     * Thread that multiplexes a group of control connections
+     */
+    static class EventLoop implements Runnable, Closeable {
+
+        private static final long SWEEP_INTERVAL = 1000;
+
+        final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(8192);
+        private long lastSweep = System.currentTimeMillis();
+
+        EventLoop(int id) throws IOException {
+            this.selector = Selector.open();
+
+            Thread thread = new Thread(this, "FTP Event Loop #" + id);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Schedules a task to be run in the event loop thread
+         * @param task The task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SelectorConnection con) {
+            execute(() -> {
+                try {
+                    con.register(selector);
+                } catch(IOException ex) {
+                    // The connection was closed before it could be registered
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            while(selector.isOpen()) {
+                try {
+                    Runnable task;
+                    while((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    selector.select(SWEEP_INTERVAL);
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while(it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+
+                        ((SelectorConnection)key.attachment()).handle(key, readBuffer);
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if(now - lastSweep >= SWEEP_INTERVAL) {
+                        lastSweep = now;
+                        sweep(now);
+                    }
+                } catch(ClosedSelectorException ex) {
+                    break;
+                } catch(IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Disconnects idle connections
+         * @param now The current time in milliseconds
+         */
+        private void sweep(long now) {
+            for(SelectionKey key : selector.keys()) {
+                SelectorConnection con = (SelectorConnection)key.attachment();
+
+                if(key.isValid() && con.isIdle(now)) {
+                    Utils.closeQuietly(con);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            selector.close();
+        }
+    }
+
+}
@@ -16,8 +16,11 @@
 
 package com.guichaguri.minimalftp;
 
+import com.guichaguri.minimalftp.api.FileAttributes;
 import com.guichaguri.minimalftp.api.IFileSystem;
-import java.io.BufferedInputStream;
+import com.guichaguri.minimalftp.io.AsciiTranslator;
+import com.guichaguri.minimalftp.io.BufferPool;
+import com.guichaguri.minimalftp.io.LineOffsetIndex;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -51,6 +54,9 @@ public class Utils {
     private static final SimpleDateFormat yearFormat = new SimpleDateFormat("MMM dd yyyy", Locale.ENGLISH);
     private static final long sixMonths = 183L * 24L * 60L * 60L * 1000L;
 
+    // Permissions
+    private static final String[] permissions = createPermissions();
+
     public static String toListTimestamp(long time) {
         // Intended Format
         // May 26 21:50
@@ -73,121 +79,131 @@ public class Utils {
     }
 
     public static <F> String format(IFileSystem<F> fs, F file) {
+        return format(getAttributes(fs, file));
+    }
+
+    public static String format(FileAttributes attributes) {
         // Intended Format
         // -rw-rw-rw-   1 owner   group    7045120 Aug 08  5:24 video.mp4
         // -rw-rw-rw-   1 owner   group        380 May 26 21:50 data.txt
         // drwxrwxrwx   3 owner   group          0 Oct 12  8:21 directory
 
         return String.format("%s %3d %-8s %-8s %8d %s %s\r\n",
-                getPermission(fs, file),
-                fs.getHardLinks(file),
-                fs.getOwner(file),
-                fs.getGroup(file),
-                fs.getSize(file),
-                toListTimestamp(fs.getLastModified(file)),
-                fs.getName(file));
+                getPermission(attributes.getMode(), attributes.isDirectory()),
+                attributes.getHardLinks(),
+                attributes.getOwner(),
+                attributes.getGroup(),
+                attributes.getSize(),
+                toListTimestamp(attributes.getLastModified()),
+                attributes.getName());
     }
 
     public static <F> String getPermission(IFileSystem<F> fs, F file) {
+        return getPermission(fs.getPermissions(file), fs.isDirectory(file));
+    }
+
+    public static String getPermission(int perms, boolean dir) {
         // Intended Format
         // -rw-rw-rw-
         // -rwxrwxrwx
         // drwxrwxrwx
 
-        String perm = "";
-        int perms = fs.getPermissions(file);
+        return permissions[(dir ? 01000 : 0) | (perms & 0777)];
+    }
 
-        perm += fs.isDirectory(file) ? 'd' : '-';
+    private static String[] createPermissions() {
+        // Every mode is precomputed, with the directory flag in the tenth bit
+        String[] table = new String[1024];
+        char[] perm = new char[10];
 
-        perm += hasPermission(perms, CAT_OWNER + TYPE_READ) ? 'r' : '-';
-        perm += hasPermission(perms, CAT_OWNER + TYPE_WRITE) ? 'w' : '-';
-        perm += hasPermission(perms, CAT_OWNER + TYPE_EXECUTE) ? 'x' : '-';
+        for(int mode = 0; mode < table.length; mode++) {
+            perm[0] = (mode & 01000) != 0 ? 'd' : '-';
 
-        perm += hasPermission(perms, CAT_GROUP + TYPE_READ) ? 'r' : '-';
-        perm += hasPermission(perms, CAT_GROUP + TYPE_WRITE) ? 'w' : '-';
-        perm += hasPermission(perms, CAT_GROUP + TYPE_EXECUTE) ? 'x' : '-';
+            for(int bit = 0; bit < 9; bit++) {
+                perm[9 - bit] = hasPermission(mode, bit) ? "xwr".charAt(bit % 3) : '-';
+            }
 
-        perm += hasPermission(perms, CAT_PUBLIC + TYPE_READ) ? 'r' : '-';
-        perm += hasPermission(perms, CAT_PUBLIC + TYPE_WRITE) ? 'w' : '-';
-        perm += hasPermission(perms, CAT_PUBLIC + TYPE_EXECUTE) ? 'x' : '-';
+            table[mode] = new String(perm);
+        }
 
-        return perm;
+        return table;
     }
 
     public static <F> String getFacts(IFileSystem<F> fs, F file, String[] options) {
+        return getFacts(getAttributes(fs, file), options);
+    }
+
+    public static String getFacts(FileAttributes attributes, String[] options) {
         // Intended Format
         // modify=20170808052431;size=7045120;type=file;perm=rfadw; video.mp4
         // modify=20170526215012;size=380;type=file;perm=rfadw; data.txt
         // modify=20171012082146;size=0;type=dir;perm=elfpcm; directory
 
-        String facts = "";
-        boolean dir = fs.isDirectory(file);
+        StringBuilder facts = new StringBuilder();
+        boolean dir = attributes.isDirectory();
 
         for(String opt : options) {
-            opt = opt.toLowerCase();
-
-            if(opt.equals("modify")) {
-                facts += "modify=" + Utils.toMdtmTimestamp(fs.getLastModified(file)) + ";";
-            } else if(opt.equals("size")) {
-                facts += "size=" + fs.getSize(file) + ";";
-            } else if(opt.equals("type")) {
-                facts += "type=" + (dir ? "dir" : "file") + ";";
-            } else if(opt.equals("perm")) {
-                int perms = fs.getPermissions(file);
-                String perm = "";
+            if(opt.equalsIgnoreCase("modify")) {
+                facts.append("modify=").append(Utils.toMdtmTimestamp(attributes.getLastModified())).append(';');
+            } else if(opt.equalsIgnoreCase("size")) {
+                facts.append("size=").append(attributes.getSize()).append(';');
+            } else if(opt.equalsIgnoreCase("type")) {
+                facts.append("type=").append(dir ? "dir" : "file").append(';');
+            } else if(opt.equalsIgnoreCase("perm")) {
+                int perms = attributes.getPermissions();
+                facts.append("perm=");
 
                 if(hasPermission(perms, CAT_OWNER + TYPE_READ)) {
-                    perm += dir ? "el" : "r";
+                    facts.append(dir ? "el" : "r");
                 }
                 if(hasPermission(perms, CAT_OWNER + TYPE_WRITE)) {
-                    perm += "f";
-                    perm += dir ? "pcm" : "adw";
+                    facts.append('f').append(dir ? "pcm" : "adw");
                 }
 
-                facts += "perm=" + perm + ";";
+                facts.append(';');
             }
         }
 
-        facts += " " + fs.getName(file) + "\r\n";
-        return facts;
+        return facts.append(' ').append(attributes.getName()).append("\r\n").toString();
+    }
+
+    private static <F> FileAttributes getAttributes(IFileSystem<F> fs, F file) {
+        // Reads each property separately, as these methods can't throw an IOException
+        return new FileAttributes(fs.getName(file), fs.isDirectory(file), fs.getSize(file), fs.getLastModified(file),
+                fs.getPermissions(file), fs.getHardLinks(file), fs.getOwner(file), fs.getGroup(file));
     }
 
     public static void write(OutputStream out, byte[] bytes, int len, boolean ascii) throws IOException {
         if(ascii) {
             // ASCII - Add \r before \n when necessary
-            byte lastByte = 0;
-            for(int i = 0; i < len; i++) {
-                byte b = bytes[i];
-
-                if(b == '\n' && lastByte != '\r') {
-                    out.write('\r');
-                }
-
-                out.write(b);
-                lastByte = b;
-            }
+            write(out, bytes, 0, len, new AsciiTranslator(), new byte[Math.min(len, 8192) * 2]);
         } else {
             // Binary - Keep all \r\n as is
             out.write(bytes, 0, len);
         }
     }
 
+    public static void write(OutputStream out, byte[] bytes, int off, int len, AsciiTranslator translator, byte[] buffer) throws IOException {
+        // ASCII - Translated in blocks of half of the buffer, as each byte might become two
+        // The translator keeps the state, so it should be the same for the whole transfer
+        int block = Math.max(buffer.length / 2, 1);
+
+        while(len > 0) {
+            int length = Math.min(len, block);
+            out.write(buffer, 0, translator.toNetwork(bytes, off, length, buffer, 0));
+            off += length;
+            len -= length;
+        }
+    }
+
     public static <F> InputStream readFileSystem(IFileSystem<F> fs, F file, long start, boolean ascii) throws IOException {
-        if(ascii && start > 0) {
-            InputStream in = new BufferedInputStream(fs.readFile(file, 0));
-            long offset = 0;
-
-            // Count \n as two bytes for skipping
-            while(start >= offset++) {
-                int c = in.read();
-                if(c == -1) {
-                    throw new IOException("Couldn't skip this file. End of the file was reached");
-                } else if(c == '\n') {
-                    offset++;
-                }
-            }
+        return readFileSystem(fs, file, start, ascii, BufferPool.getDefault());
+    }
 
-            return in;
+    public static <F> InputStream readFileSystem(IFileSystem<F> fs, F file, long start, boolean ascii, BufferPool pool) throws IOException {
+        if(ascii && start > 0) {
+            // Every \n counts as two bytes, so the offset has to be found in the file
+            return LineOffsetIndex.open(fs, file, start, pool);
         } else {
             return fs.readFile(file, start);
         }
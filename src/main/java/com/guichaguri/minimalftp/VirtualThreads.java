@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Virtual thread support.
+ *
+ * This is the Java 8 version, in which virtual threads are not available.
+ * The multi-release JAR overrides this class on Java 21 or newer.
+ *
+ * @author Guilherme Chaguri
+ */
+class VirtualThreads {
+
+    /**
+     * Whether the runtime supports virtual threads
+     * @return {@code true} if virtual threads can be created
+     */
+    static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * Creates an unstarted virtual thread
+     * @param task The thread task
+     * @return The thread
+     */
+    static Thread newThread(Runnable task) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread for each task
+     * @return The executor
+     */
+    static ExecutorService newExecutor() {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.api;
+
+/**
+ * Holds all the metadata of a file that is shown in a listing.
+ *
+ * File systems can read it in a single call through {@link IFileSystem#getAttributes(Object)},
+ * instead of one call per property.
+ *
+ * @author Guilherme Chaguri
+ */
+public class FileAttributes {
+
+    private final String name;
+    private final boolean directory;
+    private final long size;
+    private final long lastModified;
+    private final int permissions;
+    private final int mode;
+    private final int hardLinks;
+    private final String owner;
+    private final String group;
+
+    /**
+     * Creates the attributes of a file
+     * @param name The file name
+     * @param directory Whether the file is a directory
+     * @param size The file size in bytes
+     * @param lastModified The modified time in millis since the epoch
+     * @param permissions The octal permission number
+     * @param hardLinks The number of hard links
+     * @param owner The owner name
+     * @param group The group name
+     */
+    public FileAttributes(String name, boolean directory, long size, long lastModified, int permissions,
+                          int hardLinks, String owner, String group) {
+        this(name, directory, size, lastModified, permissions, permissions, hardLinks, owner, group);
+    }
+
+    /**
+     * Creates the attributes of a file with a mode that differs from the effective permissions
+     * @param name The file name
+     * @param directory Whether the file is a directory
+     * @param size The file size in bytes
+     * @param lastModified The modified time in millis since the epoch
+     * @param permissions The octal permission number, as in {@link IFileSystem#getPermissions(Object)}
+     * @param mode The octal mode shown in LIST listings
+     * @param hardLinks The number of hard links
+     * @param owner The owner name
+     * @param group The group name
+     */
+    public FileAttributes(String name, boolean directory, long size, long lastModified, int permissions,
+                          int mode, int hardLinks, String owner, String group) {
+        this.name = name;
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.permissions = permissions;
+        this.mode = mode;
+        this.hardLinks = hardLinks;
+        this.owner = owner;
+        this.group = group;
+    }
+
+    /**
+     * Gets the file name
+     * @return The file name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Checks if the file is a directory
+     * @return {@code true} if the file is a directory
+     */
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the file size
+     * @return The file size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Gets the modified time
+     * @return The modified time in millis since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Gets the permission number
+     * @return The octal permission number
+     */
+    public int getPermissions() {
+        return permissions;
+    }
+
+    /**
+     * Gets the mode shown in LIST listings, which may include the group and others permissions
+     * @return The octal mode number
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the amount of hard links
+     * @return The number of hard links
+     */
+    public int getHardLinks() {
+        return hardLinks;
+    }
+
+    /**
+     * Gets the file owner
+     * @return The owner name
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Gets the file group
+     * @return The group name
+     */
+    public String getGroup() {
+        return group;
+    }
+
+}
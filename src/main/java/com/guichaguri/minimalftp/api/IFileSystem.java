@@ -17,12 +17,18 @@
 package com.guichaguri.minimalftp.api;
 
 import com.guichaguri.minimalftp.Utils;
+import com.guichaguri.minimalftp.io.BufferPool;
+import com.guichaguri.minimalftp.io.StreamChannel;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Represents a File System.
@@ -122,6 +128,21 @@ public interface IFileSystem<F extends Object> {
         return "-";
     }
 
+    /**
+     * Gets all the metadata of a file at once.
+     *
+     * File systems that can read the metadata in a single operation should override this method,
+     * as it's used for every entry of a listing.
+     *
+     * @param file The file object
+     * @return The file attributes
+     * @throws IOException When an error occurs
+     */
+    default FileAttributes getAttributes(F file) throws IOException {
+        return new FileAttributes(getName(file), isDirectory(file), getSize(file), getLastModified(file),
+                getPermissions(file), getHardLinks(file), getOwner(file), getGroup(file));
+    }
+
     /**
      * Gets (or calculates) the hash digest of a file.
      *
@@ -134,18 +155,110 @@ public interface IFileSystem<F extends Object> {
      * @throws IOException When an error occurs
      */
     default byte[] getDigest(F file, String algorithm) throws IOException, NoSuchAlgorithmException {
+        return getDigest(file, algorithm, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Gets (or calculates) the hash digest of a range of a file.
+     *
+     * The algorithms "MD5", "SHA-1" and "SHA-256" are required to be implemented
+     *
+     * The default implementation reads the file with buffers from {@link BufferPool#getDefault()}
+     *
+     * @param file The file object
+     * @param algorithm The digest algorithm
+     * @param start The position of the first byte
+     * @param end The position after the last byte, limited by the file size
+     * @return The hash digest
+     * @throws NoSuchAlgorithmException When the algorithm is not implement
+     * @throws IOException When an error occurs
+     */
+    default byte[] getDigest(F file, String algorithm, long start, long end) throws IOException, NoSuchAlgorithmException {
         MessageDigest d = MessageDigest.getInstance(algorithm);
 
-        try (InputStream in = readFile(file, 0)) {
-            byte[] bytes = new byte[1024];
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer buffer = pool.acquireHeap(8192);
+
+        try (InputStream in = readFile(file, start)) {
+            byte[] bytes = buffer.array();
+            long remaining = end - start;
             int length;
 
-            while ((length = in.read(bytes)) != -1) {
+            while (remaining > 0 && (length = in.read(bytes, 0, (int) Math.min(buffer.limit(), remaining))) != -1) {
                 d.update(bytes, 0, length);
+                remaining -= length;
             }
 
             return d.digest();
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Calculates the hash digests of a range of a file in several algorithms at once.
+     *
+     * The file is read only once, and every digest is updated with the same data.
+     * The default implementation reads the file with buffers from {@link BufferPool#getDefault()}.
+     *
+     * @param file The file object
+     * @param algorithms The digest algorithms
+     * @param start The position of the first byte
+     * @param end The position after the last byte, limited by the file size
+     * @return The hash digests by algorithm, in the same order
+     * @throws NoSuchAlgorithmException When an algorithm is not implement
+     * @throws IOException When an error occurs
+     */
+    default Map<String, byte[]> getDigests(F file, String[] algorithms, long start, long end) throws IOException, NoSuchAlgorithmException {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+
+        if(algorithms.length == 1) {
+            result.put(algorithms[0], getDigest(file, algorithms[0], start, end));
+            return result;
+        }
+
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        for(int i = 0; i < algorithms.length; i++) {
+            digests[i] = MessageDigest.getInstance(algorithms[i]);
+        }
+
+        BufferPool pool = BufferPool.getDefault();
+        ByteBuffer buffer = pool.acquireHeap(65536);
+
+        try (InputStream in = readFile(file, start)) {
+            byte[] bytes = buffer.array();
+            long remaining = end - start;
+            int length;
+
+            while (remaining > 0 && (length = in.read(bytes, 0, (int) Math.min(buffer.limit(), remaining))) != -1) {
+                for (MessageDigest d : digests) {
+                    d.update(bytes, 0, length);
+                }
+                remaining -= length;
+            }
+        } finally {
+            pool.release(buffer);
+        }
+
+        for(int i = 0; i < algorithms.length; i++) {
+            result.put(algorithms[i], digests[i].digest());
         }
+        return result;
+    }
+
+    /**
+     * Offers the hash digest of a whole file, calculated while it was uploaded.
+     *
+     * File systems that cache digests can store it, so {@link #getDigest(Object, String)} doesn't need to read the file back.
+     * The default implementation ignores it.
+     *
+     * @param file The file object
+     * @param algorithm The digest algorithm
+     * @param digest The hash digest of the current file contents
+     * @throws IOException When an error occurs
+     */
+    default void putDigest(F file, String algorithm, byte[] digest) throws IOException {
+
     }
 
     /**
@@ -171,6 +284,34 @@ public interface IFileSystem<F extends Object> {
      */
     F[] listFiles(F dir) throws IOException;
 
+    /**
+     * Lists the files of a directory one by one, without holding the whole list in memory.
+     *
+     * This method should check for file access permissions
+     *
+     * @param dir The directory file object
+     * @param consumer The consumer that receives each file
+     * @throws IOException When an error occurs or when thrown by the consumer
+     */
+    default void listFiles(F dir, FileConsumer<F> consumer) throws IOException {
+        for(F file : listFiles(dir)) {
+            consumer.accept(file);
+        }
+    }
+
+    /**
+     * Lists the files of a directory along with their attributes, one by one.
+     *
+     * File systems that read the metadata while iterating the directory should override this method.
+     *
+     * @param dir The directory file object
+     * @param consumer The consumer that receives each file and its attributes
+     * @throws IOException When an error occurs or when thrown by the consumer
+     */
+    default void listAttributes(F dir, AttributesConsumer<F> consumer) throws IOException {
+        listFiles(dir, file -> consumer.accept(file, getAttributes(file)));
+    }
+
     /**
      * Finds a file based on the path.
      *
@@ -219,6 +360,40 @@ public interface IFileSystem<F extends Object> {
      */
     OutputStream writeFile(F file, long start) throws IOException;
 
+    /**
+     * Reads a file through a channel.
+     *
+     * The default implementation adapts {@link #readFile(Object, long)}.
+     * File systems backed by real files should return a {@link java.nio.channels.FileChannel},
+     * which allows zero-copy transfers.
+     *
+     * @param file The file object
+     * @param start The position in bytes to start reading from
+     * @return The channel of the file
+     * @throws IOException When an error occurs
+     */
+    default SeekableByteChannel readChannel(F file, long start) throws IOException {
+        return new StreamChannel(readFile(file, start), start, getSize(file));
+    }
+
+    /**
+     * Writes a file through a channel.
+     *
+     * If the file does not exist, creates the file.
+     *
+     * The default implementation adapts {@link #writeFile(Object, long)}.
+     * File systems backed by real files should return a {@link java.nio.channels.FileChannel},
+     * which allows zero-copy transfers.
+     *
+     * @param file The file object
+     * @param start The position in bytes to start writing to
+     * @return The channel of the file
+     * @throws IOException When an error occurs
+     */
+    default SeekableByteChannel writeChannel(F file, long start) throws IOException {
+        return new StreamChannel(writeFile(file, start), start);
+    }
+
     /**
      * Creates a directory
      * @param file The file object
@@ -241,6 +416,18 @@ public interface IFileSystem<F extends Object> {
      */
     void rename(F from, F to) throws IOException;
 
+    /**
+     * Notifies that a file was changed, such as after an upload finishes.
+     *
+     * File systems that cache information about files should discard it.
+     * The default implementation does nothing.
+     *
+     * @param file The file object
+     */
+    default void invalidate(F file) {
+
+    }
+
     /**
      * Changes the permissions of a file
      * @param file The file object
@@ -257,4 +444,22 @@ public interface IFileSystem<F extends Object> {
      */
     void touch(F file, long time) throws IOException;
 
+    /**
+     * Receives the files of a directory listing
+     * @param <F> The file type
+     */
+    @FunctionalInterface
+    interface FileConsumer<F> {
+        void accept(F file) throws IOException;
+    }
+
+    /**
+     * Receives the files of a directory listing along with their attributes
+     * @param <F> The file type
+     */
+    @FunctionalInterface
+    interface AttributesConsumer<F> {
+        void accept(F file, FileAttributes attributes) throws IOException;
+    }
+
 }
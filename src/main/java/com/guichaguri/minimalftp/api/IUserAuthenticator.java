@@ -78,6 +78,20 @@ public interface IUserAuthenticator {
      */
     IFileSystem authenticate(FTPConnection con, InetAddress host, String username, String password) throws AuthException;
 
+    /**
+     * Gets the bandwidth weight of an authenticated user.
+     *
+     * When fair bandwidth sharing is enabled, the server bandwidth limit is split between
+     * the active users proportionally to their weights.
+     *
+     * @param con The FTP connection
+     * @param username The username or {@code null} when {@link #needsUsername(FTPConnection)} returns false
+     * @return The weight, which should be at least {@code 1}
+     */
+    default int getBandwidthWeight(FTPConnection con, String username) {
+        return 1;
+    }
+
     /**
      * The exception that should be thrown when the authentication fails
      */
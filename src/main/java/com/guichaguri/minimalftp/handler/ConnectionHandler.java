@@ -23,9 +23,12 @@ import com.guichaguri.minimalftp.api.IUserAuthenticator;
 import com.guichaguri.minimalftp.api.IUserAuthenticator.AuthException;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
@@ -49,6 +52,7 @@ public class ConnectionHandler {
     private int activePort = 0;
 
     private boolean ascii = true;
+    private char mode = 'S';
     private boolean secureData = false;
     private boolean stop = false;
 
@@ -64,6 +68,10 @@ public class ConnectionHandler {
         return ascii;
     }
 
+    public char getTransferMode() {
+        return mode;
+    }
+
     public boolean isAuthenticated() {
         return authenticated;
     }
@@ -74,17 +82,69 @@ public class ConnectionHandler {
 
     public Socket createDataSocket() throws IOException {
         if(passive && passiveServer != null) {
-            return passiveServer.accept();
-        } else if(secureData) {
+            Socket socket = passiveServer.accept();
+            configureDataSocket(socket);
+            return socket;
+        }
+
+        InetSocketAddress address = new InetSocketAddress(activeHost, activePort);
+
+        if(secureData) {
             SSLSocketFactory factory = con.getServer().getSSLContext().getSocketFactory();
-            SSLSocket socket = (SSLSocket)factory.createSocket(activeHost, activePort);
+            SSLSocket socket = (SSLSocket)factory.createSocket();
+            configureDataSocket(socket);
+            socket.connect(address);
             socket.setUseClientMode(false);
             return socket;
         } else {
-            return new Socket(activeHost, activePort);
+            // Channel-backed sockets allow zero-copy transfers
+            SocketChannel channel = SocketChannel.open();
+            configureDataSocket(channel.socket());
+            channel.connect(address);
+            return channel.socket();
         }
     }
 
+    /**
+     * Sizes the socket buffers of a data connection, when the server has a size configured
+     * @param socket The data socket
+     * @throws IOException When an error occurs
+     */
+    private void configureDataSocket(Socket socket) throws IOException {
+        int size = con.getServer().getSocketBufferSize();
+        if(size <= 0) return;
+
+        socket.setSendBufferSize(size);
+        socket.setReceiveBufferSize(size);
+    }
+
+    private ServerSocket createPassiveServer() throws IOException {
+        FTPServer server = con.getServer();
+
+        if(passiveServer != null) {
+            Utils.closeQuietly(passiveServer);
+            passiveServer = null;
+        }
+
+        ServerSocket socket;
+
+        if(secureData) {
+            SSLContext context = server.getSSLContext();
+            if(context == null) throw new NullPointerException("The SSL context is null");
+            socket = context.getServerSocketFactory().createServerSocket();
+        } else {
+            // Channel-backed sockets allow zero-copy transfers
+            socket = ServerSocketChannel.open().socket();
+        }
+
+        // Accepted sockets inherit the receive buffer, which only allows large TCP windows when set before binding
+        int size = server.getSocketBufferSize();
+        if(size > 0) socket.setReceiveBufferSize(size);
+
+        socket.bind(new InetSocketAddress(server.getAddress(), 0), 5);
+        return socket;
+    }
+
     public void onConnected() throws IOException {
         IUserAuthenticator auth = con.getServer().getAuthenticator();
 
@@ -148,6 +208,9 @@ public class ConnectionHandler {
         if (passiveAvailable) con.registerFeature("EPSV"); // Extended Passive Mode (RFC 2428)
         con.registerFeature("EPRT"); // Extended Active Mode (RFC 2428)
         con.registerFeature("HOST"); // Custom Virtual Hosts (RFC 7151)
+        con.registerFeature("MODE Z"); // Deflate Transfer Mode (draft-preston-ftpext-deflate-04)
+
+        con.registerOption("MODE Z LEVEL", "6");
     }
 
     private void noop() {
@@ -194,7 +257,14 @@ public class ConnectionHandler {
 
     private void mode(String mode) throws IOException {
         if(mode.equalsIgnoreCase("S")) {
+            this.mode = 'S';
             con.sendResponse(200, "The mode was set to stream");
+        } else if(mode.equalsIgnoreCase("B")) {
+            this.mode = 'B';
+            con.sendResponse(200, "The mode was set to block");
+        } else if(mode.equalsIgnoreCase("Z")) {
+            this.mode = 'Z';
+            con.sendResponse(200, "The mode was set to deflate");
         } else {
             con.sendResponse(504, "Unsupported mode");
         }
@@ -298,14 +368,13 @@ public class ConnectionHandler {
     }
 
     private void pasv() throws IOException {
-        FTPServer server = con.getServer();
-        passiveServer = Utils.createServer(0, 5, server.getAddress(), server.getSSLContext(), secureData);
+        passiveServer = createPassiveServer();
         passive = true;
 
         String host = passiveServer.getInetAddress().getHostAddress();
         int port = passiveServer.getLocalPort();
 
-        if(host.equals("0.0.0.0")) {
+        if(passiveServer.getInetAddress().isAnyLocalAddress()) {
             // Sends a valid address instead of a wildcard
             host = InetAddress.getLocalHost().getHostAddress();
         }
@@ -338,11 +407,12 @@ public class ConnectionHandler {
         String ip = con.getAddress().getHostAddress();
         String user = username != null ? "as " + username : "anonymously";
         String type = ascii ? "ASCII" : "Binary";
+        String mode = this.mode == 'Z' ? "Deflate" : (this.mode == 'B' ? "Block" : "Stream");
 
         String data = "";
         data += "Connected from " + ip + " (" + ip + ")\r\n";
         data += "Logged in " + user + "\r\n";
-        data += "TYPE: " + type + ", STRUcture: File, MODE: Stream\r\n";
+        data += "TYPE: " + type + ", STRUcture: File, MODE: " + mode + "\r\n";
         data += "Total bytes transferred for session: " + con.getBytesTransferred() + "\r\n";
         con.sendData(data.getBytes(StandardCharsets.UTF_8));
 
@@ -401,14 +471,13 @@ public class ConnectionHandler {
     }
 
     private void lpsv() throws IOException { // Obsolete Command
-        FTPServer server = con.getServer();
-        passiveServer = Utils.createServer(0, 5, server.getAddress(), server.getSSLContext(), secureData);
+        passiveServer = createPassiveServer();
         passive = true;
 
         String host = passiveServer.getInetAddress().getHostAddress();
         int port = passiveServer.getLocalPort();
 
-        if(host.equals("0.0.0.0")) {
+        if(passiveServer.getInetAddress().isAnyLocalAddress()) {
             // Sends a valid address instead of a wildcard
             host = InetAddress.getLocalHost().getHostAddress();
         }
@@ -451,8 +520,7 @@ public class ConnectionHandler {
     }
 
     private void epsv() throws IOException {
-        FTPServer server = con.getServer();
-        passiveServer = Utils.createServer(0, 5, server.getAddress(), server.getSSLContext(), secureData);
+        passiveServer = createPassiveServer();
         passive = true;
 
         con.sendResponse(229, "Enabled Passive Mode (|||" + passiveServer.getLocalPort() + "|)");
@@ -20,14 +20,29 @@ import com.guichaguri.minimalftp.FTPConnection;
 import com.guichaguri.minimalftp.Utils;
 import com.guichaguri.minimalftp.api.IFileSystem;
 import com.guichaguri.minimalftp.api.ResponseException;
+import com.guichaguri.minimalftp.impl.FileSystemDecorator;
+import com.guichaguri.minimalftp.impl.ListingCacheFileSystem;
+import com.guichaguri.minimalftp.io.DigestChannel;
+import com.guichaguri.minimalftp.io.ListingEncoder;
+import com.guichaguri.minimalftp.io.ListingRenderer;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Handles file management commands
@@ -42,6 +57,8 @@ public class FileHandler {
 
     private Object rnFile = null;
     private long start = 0;
+    private long rangeStart = 0;
+    private long rangeEnd = -1;
 
     public FileHandler(FTPConnection connection) {
         this.con = connection;
@@ -51,9 +68,18 @@ public class FileHandler {
         return fs;
     }
 
+    @SuppressWarnings("unchecked")
     public void setFileSystem(IFileSystem<Object> fs) {
         this.fs = fs;
         this.cwd = fs.getRoot();
+
+        // Listing caches render with the server buffers and watch with the server threads
+        ListingCacheFileSystem<Object> cache = FileSystemDecorator.find(fs, ListingCacheFileSystem.class);
+
+        if(cache != null) {
+            cache.setBufferPool(con.getServer().getBufferPool());
+            cache.setThreadFactory(con.getServer()::createThread);
+        }
     }
 
     public void registerCommands() {
@@ -95,6 +121,8 @@ public class FileHandler {
         con.registerCommand("MMD5", "MMD5 <file1, file2, ...>", this::mmd5); // MD5 Digest (draft-twine-ftpmd5-00) (Obsolete)
 
         con.registerCommand("HASH", "HASH <file>", this::hash); // Hash Digest (draft-bryan-ftpext-hash-02)
+        con.registerCommand("MHASH", "MHASH <file1, file2, ...>", this::mhash); // Multiple Hash Digests (Non-standard)
+        con.registerCommand("RANG", "RANG <start> <end>", this::rang); // Octet Range (draft-bryan-ftp-range-08)
 
         con.registerFeature("base"); // Base Commands (RFC 5797)
         con.registerFeature("hist"); // Obsolete Commands (RFC 5797)
@@ -106,6 +134,7 @@ public class FileHandler {
         con.registerFeature("MFMT"); // Change Modified Time (draft-somers-ftp-mfxx-04)
         con.registerFeature("MD5"); // MD5 Digest (draft-twine-ftpmd5-00)
         con.registerFeature("HASH MD5;SHA-1;SHA-256"); // Hash Digest (draft-bryan-ftpext-hash-02)
+        con.registerFeature("RANG STREAM"); // Octet Range (draft-bryan-ftp-range-08)
 
         con.registerOption("MLST", "Type;Size;Modify;Perm;");
         con.registerOption("HASH", "MD5");
@@ -169,10 +198,7 @@ public class FileHandler {
     private void stor(String path) throws IOException {
         Object file = getFile(path);
 
-        OutputStream fileStream = fs.writeFile(file, start);
-        con.sendResponse(150, "Receiving a file stream for " + path);
-
-        receiveStream(fileStream);
+        receiveFile(file, start, "Receiving a file stream for " + path);
         start = 0;
     }
 
@@ -194,24 +220,30 @@ public class FileHandler {
             file = fs.findFile(cwd, name + ext);
         }
 
-        OutputStream outputStream = fs.writeFile(file, 0);
-        con.sendResponse(150, "File: " + fs.getPath(file));
-        receiveStream(outputStream);
+        receiveFile(file, 0, "File: " + fs.getPath(file));
     }
 
     private void appe(String path) throws IOException {
         Object file = getFile(path);
-        OutputStream outputStream = fs.writeFile(file, fs.exists(file) ? fs.getSize(file) : 0);
-        con.sendResponse(150, "Receiving a file stream for " + path);
-        receiveStream(outputStream);
+        receiveFile(file, fs.exists(file) ? fs.getSize(file) : 0, "Receiving a file stream for " + path);
     }
 
     private void retr(String path) throws IOException {
         Object file = getFile(path);
 
-        InputStream inputStream = Utils.readFileSystem(fs, file, start, con.isAsciiMode());
-        con.sendResponse(150, "Sending the file stream for " + path + " (" + fs.getSize(file) + " bytes)");
-        sendStream(inputStream);
+        if(rangeEnd >= 0) {
+            if(con.isAsciiMode()) {
+                con.sendResponse(504, "Ranged transfers are only supported in binary mode");
+                return;
+            }
+
+            long length = rangeEnd - rangeStart + 1;
+            sendFile(file, rangeStart, length, "Sending " + length + " bytes of the file stream for " + path);
+            rangeEnd = -1;
+            return;
+        }
+
+        sendFile(file, start, -1, "Sending the file stream for " + path + " (" + fs.getSize(file) + " bytes)");
         start = 0;
     }
 
@@ -219,12 +251,35 @@ public class FileHandler {
         long bytes = Long.parseLong(byteStr);
         if(bytes >= 0) {
             start = bytes;
+            rangeEnd = -1;
             con.sendResponse(350, "Restarting at " + bytes + ". Ready to receive a RETR or STOR command");
         } else {
             con.sendResponse(501, "The number of bytes should be greater or equal to 0");
         }
     }
 
+    private void rang(String[] args) {
+        if(args.length < 2) {
+            con.sendResponse(501, "Missing parameters");
+            return;
+        }
+
+        long startPoint = Long.parseLong(args[0]);
+        long endPoint = Long.parseLong(args[1]);
+
+        if(startPoint == 1 && endPoint == 0) {
+            rangeEnd = -1;
+            con.sendResponse(350, "Reset the range markers");
+        } else if(startPoint < 0 || endPoint < startPoint) {
+            con.sendResponse(501, "The end point should be greater or equal to the start point");
+        } else {
+            rangeStart = startPoint;
+            rangeEnd = endPoint;
+            start = 0;
+            con.sendResponse(350, "Restarting at " + startPoint + ". Ending at " + endPoint + ".");
+        }
+    }
+
     private void abor() throws IOException {
         con.abortDataTransfers();
         con.sendResponse(226, "All transfers were aborted successfully");
@@ -249,13 +304,13 @@ public class FileHandler {
             return;
         }
 
-        StringBuilder data = new StringBuilder();
+        Object listed = dir;
+        ListingRenderer lines = new ListingRenderer();
+        ListingEncoder.Renderer<Object> renderer = (encoder, file, attributes) -> lines.writeList(encoder, attributes);
 
-        for(Object file : fs.listFiles(dir)) {
-            data.append(Utils.format(fs, file));
+        if(!sendCachedListing(listed, "LIST", renderer)) {
+            con.sendListing(encoder -> fs.listAttributes(listed, (file, attributes) -> renderer.render(encoder, file, attributes)));
         }
-
-        con.sendData(data.toString().getBytes(StandardCharsets.UTF_8));
         con.sendResponse(226, "The list was sent");
     }
 
@@ -278,13 +333,13 @@ public class FileHandler {
             return;
         }
 
-        StringBuilder data = new StringBuilder();
+        Object listed = dir;
+        ListingRenderer lines = new ListingRenderer();
+        ListingEncoder.Renderer<Object> renderer = (encoder, file, attributes) -> lines.writeName(encoder, fs.getName(file));
 
-        for(Object file : fs.listFiles(dir)) {
-            data.append(fs.getName(file)).append("\r\n");
+        if(!sendCachedListing(listed, "NLST", renderer)) {
+            con.sendListing(encoder -> fs.listFiles(listed, file -> renderer.render(encoder, file, null)));
         }
-
-        con.sendData(data.toString().getBytes(StandardCharsets.UTF_8));
         con.sendResponse(226, "The list was sent");
     }
 
@@ -355,7 +410,7 @@ public class FileHandler {
         }
 
         String[] options = con.getOption("MLST").split(";");
-        String facts = Utils.getFacts(fs, file, options);
+        String facts = Utils.getFacts(fs.getAttributes(file), options);
 
         con.sendResponse(250, "- Listing " + fs.getName(file) + "\r\n" + facts);
         con.sendResponse(250, "End");
@@ -371,17 +426,36 @@ public class FileHandler {
 
         con.sendResponse(150, "Sending file information list...");
 
-        String[] options = con.getOption("MLST").split(";");
-        StringBuilder data = new StringBuilder();
+        String option = con.getOption("MLST");
+        ListingRenderer lines = new ListingRenderer(option);
+        ListingEncoder.Renderer<Object> renderer = (encoder, f, attributes) -> lines.writeFacts(encoder, attributes);
 
-        for(Object f : fs.listFiles(file)) {
-            data.append(Utils.getFacts(fs, f, options));
+        if(!sendCachedListing(file, "MLSD " + option, renderer)) {
+            con.sendListing(encoder -> fs.listAttributes(file, (f, attributes) -> renderer.render(encoder, f, attributes)));
         }
-
-        con.sendData(data.toString().getBytes(StandardCharsets.UTF_8));
         con.sendResponse(226, "The file list was sent!");
     }
 
+    /**
+     * Sends the rendered listing of a directory, when the file system has a listing cache
+     * @param dir The directory
+     * @param format The format name
+     * @param renderer The entry renderer
+     * @return Whether the listing was sent
+     * @throws IOException When the directory couldn't be listed
+     */
+    @SuppressWarnings("unchecked")
+    private boolean sendCachedListing(Object dir, String format, ListingEncoder.Renderer<Object> renderer) throws IOException {
+        ListingCacheFileSystem<Object> cache = FileSystemDecorator.find(fs, ListingCacheFileSystem.class);
+        if(cache == null) return false;
+
+        byte[] listing = cache.getRenderedListing(dir, format, renderer);
+        if(listing == null) return false;
+
+        con.sendListing(encoder -> encoder.write(listing, 0, listing.length));
+        return true;
+    }
+
     private void mfmt(String[] args) throws IOException {
         if(args.length < 2) {
             con.sendResponse(501, "Missing arguments");
@@ -408,17 +482,12 @@ public class FileHandler {
     }
 
     private void md5(String path) throws IOException {
-        String p = path = path.trim();
-
-        if(p.length() > 2 && p.startsWith("\"") && p.endsWith("\"")) {
-            // Remove the quotes
-            p = p.substring(1, p.length() - 1).trim();
-        }
+        path = path.trim();
 
         try {
-            Object file = getFile(p);
+            Object file = getFile(unquote(path));
             byte[] digest = fs.getDigest(file, "MD5");
-            String md5 = new BigInteger(1, digest).toString(16);
+            String md5 = toHex(digest);
 
             con.sendResponse(251, path + " " + md5);
         } catch(NoSuchAlgorithmException ex) {
@@ -428,30 +497,60 @@ public class FileHandler {
     }
 
     private void mmd5(String args) throws IOException {
-        String[] paths = args.split(",");
+        String[] paths = parsePaths(args);
+        List<Future<byte[]>> digests = submitDigests(getFiles(paths), "MD5");
         StringBuilder response = new StringBuilder();
 
         try {
-            for(String path : paths) {
-                String p = path = path.trim();
-
-                if(p.length() > 2 && p.startsWith("\"") && p.endsWith("\"")) {
-                    // Remove the quotes
-                    p = p.substring(1, p.length() - 1).trim();
-                }
-
-                Object file = getFile(p);
-                byte[] digest = fs.getDigest(file, "MD5");
-                String md5 = new BigInteger(1, digest).toString(16);
+            for(int i = 0; i < paths.length; i++) {
+                String md5 = toHex(awaitDigest(digests.get(i)));
 
                 if(response.length() > 0) response.append(", ");
-                response.append(path).append(" ").append(md5);
+                response.append(paths[i]).append(" ").append(md5);
             }
 
             con.sendResponse(paths.length == 1 ? 251 : 252, response.toString());
         } catch(NoSuchAlgorithmException ex) {
             // Shouldn't ever happen
             con.sendResponse(504, ex.getMessage());
+        } finally {
+            cancelDigests(digests);
+        }
+    }
+
+    private void mhash(String args) throws IOException {
+        String[] paths = parsePaths(args);
+        String hash = con.getOption("HASH");
+        List<Object> files = getFiles(paths);
+        List<Future<byte[]>> digests = submitDigests(files, hash);
+
+        try {
+            // Each digest is sent as soon as it's ready, in the requested order
+            for(int i = 0; i < paths.length; i++) {
+                String line;
+
+                try {
+                    String digest = toHex(awaitDigest(digests.get(i)));
+                    long size = fs.getSize(files.get(i));
+
+                    line = String.format("-%s %s %s %s", hash, formatRange(0, size - 1), digest, paths[i]);
+                } catch(NoSuchAlgorithmException ex) {
+                    // Every digest uses the same algorithm, so it fails before any line is sent
+                    if(i == 0) throw ex;
+                    line = String.format("-%s: %s", paths[i], ex.getMessage());
+                } catch(IOException ex) {
+                    // A failure is reported in its own line, so the multi-line reply is still terminated
+                    line = String.format("-%s: %s", paths[i], ex.getMessage());
+                }
+
+                con.sendResponse(213, line);
+            }
+
+            con.sendResponse(213, "End");
+        } catch(NoSuchAlgorithmException ex) {
+            con.sendResponse(504, ex.getMessage());
+        } finally {
+            cancelDigests(digests);
         }
     }
 
@@ -459,48 +558,289 @@ public class FileHandler {
         try {
             Object file = getFile(path);
             String hash = con.getOption("HASH");
-            byte[] digest = fs.getDigest(file, hash);
-            String hex = new BigInteger(1, digest).toString(16);
+            long size = fs.getSize(file);
+            long first = 0, last = size - 1;
+            boolean ranged = rangeEnd >= 0;
+
+            if(ranged) {
+                first = rangeStart;
+                last = Math.min(rangeEnd, last);
+                rangeEnd = -1;
+            }
 
-            // TODO RANG
-            con.sendResponse(213, String.format("%s 0-%s %s %s", hash, fs.getSize(file), hex, fs.getName(file)));
+            if(ranged && last < first) {
+                con.sendResponse(556, "The range is past the end of the file");
+                return;
+            }
+
+            byte[] digest = ranged ? fs.getDigest(file, hash, first, last + 1) : fs.getDigest(file, hash);
+
+            con.sendResponse(213, String.format("%s %s %s %s", hash, formatRange(first, last), toHex(digest), fs.getName(file)));
         } catch(NoSuchAlgorithmException ex) {
             con.sendResponse(504, ex.getMessage());
         }
     }
 
     /**
-     * Sends a stream asynchronously, sending a response after it's done
-     * @param in The stream
+     * Formats the inclusive byte range of a HASH reply
+     * @param first The first byte
+     * @param last The last byte, which is before the first one for an empty file
+     * @return The range text, which is {@code 0-0} for an empty file
+     */
+    private static String formatRange(long first, long last) {
+        // The inclusive range can't represent zero bytes
+        return last < first ? "0-0" : first + "-" + last;
+    }
+
+    /**
+     * Splits a comma separated list of paths, as used by the multi-file digest commands
+     * @param args The command arguments
+     * @return The trimmed paths, which may be quoted
+     */
+    private static String[] parsePaths(String args) {
+        String[] paths = args.split(",");
+
+        for(int i = 0; i < paths.length; i++) {
+            paths[i] = paths[i].trim();
+        }
+        return paths;
+    }
+
+    /**
+     * Removes the quotes around a path
+     * @param path The path
+     * @return The unquoted path
+     */
+    private static String unquote(String path) {
+        if(path.length() > 2 && path.startsWith("\"") && path.endsWith("\"")) {
+            return path.substring(1, path.length() - 1).trim();
+        }
+        return path;
+    }
+
+    /**
+     * Finds the files of a multi-file digest command
+     * @param paths The file paths, which may be quoted
+     * @return The file objects, in the same order
+     * @throws IOException When a file couldn't be found
+     */
+    private List<Object> getFiles(String[] paths) throws IOException {
+        List<Object> files = new ArrayList<>(paths.length);
+
+        for(String path : paths) {
+            files.add(getFile(unquote(path)));
+        }
+        return files;
+    }
+
+    /**
+     * Submits the digests of multiple files to be calculated in parallel
+     * @param files The file objects
+     * @param algorithm The digest algorithm
+     * @return The digests, in the same order
+     */
+    private List<Future<byte[]>> submitDigests(List<Object> files, String algorithm) {
+        List<Future<byte[]>> digests = new ArrayList<>(files.size());
+
+        for(Object file : files) {
+            digests.add(con.getServer().submitDigest(() -> fs.getDigest(file, algorithm)));
+        }
+        return digests;
+    }
+
+    /**
+     * Waits for a digest submitted by {@link #submitDigests(List, String)}
+     * @param digest The future digest
+     * @return The digest
+     * @throws NoSuchAlgorithmException When the algorithm is not implemented
+     * @throws IOException When an error occurs
+     */
+    private static byte[] awaitDigest(Future<byte[]> digest) throws IOException, NoSuchAlgorithmException {
+        try {
+            return digest.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calculating the digest");
+        } catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException) throw (IOException)cause;
+            if(cause instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException)cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Cancels the digests that are no longer needed
+     * @param digests The future digests
+     */
+    private static void cancelDigests(List<Future<byte[]>> digests) {
+        for(Future<byte[]> digest : digests) {
+            digest.cancel(false);
+        }
+    }
+
+    /**
+     * Converts a digest to a hexadecimal string, keeping the leading zeros
+     * @param digest The digest
+     * @return The hexadecimal representation
+     */
+    private static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+
+        for(byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Sends a file asynchronously, sending a response after it's done.
+     *
+     * Binary transfers use the file system channels.
+     *
+     * @param file The file object
+     * @param start The position in bytes to start reading from
+     * @param length The maximum amount of bytes to send or {@code -1} to send the rest of the file
+     * @param response The message of the 150 response
+     * @throws IOException When the file couldn't be opened
+     */
+    private void sendFile(Object file, long start, long length, String response) throws IOException {
+        if(con.isAsciiMode()) {
+            InputStream in = Utils.readFileSystem(fs, file, start, true, con.getServer().getBufferPool());
+            con.sendResponse(150, response);
+            runTransfer(() -> con.sendData(in, start), "File sent!", in);
+        } else {
+            ReadableByteChannel in = fs.readChannel(file, start);
+            con.sendResponse(150, response);
+            runTransfer(() -> con.sendData(in, length), "File sent!", in);
+        }
+    }
+
+    /**
+     * Receives a file asynchronously, sending a response after it's done.
+     *
+     * Binary transfers use the file system channels.
+     *
+     * @param file The file object
+     * @param start The position in bytes to start writing to
+     * @param response The message of the 150 response
+     * @throws IOException When the file couldn't be opened
      */
-    private void sendStream(InputStream in) {
-        new Thread(() -> {
-            try {
-                con.sendData(in);
-                con.sendResponse(226, "File sent!");
-            } catch(ResponseException ex) {
-                con.sendResponse(ex.getCode(), ex.getMessage());
-            } catch(Exception ex) {
-                con.sendResponse(451, ex.getMessage());
+    private void receiveFile(Object file, long start, String response) throws IOException {
+        // Digests are only useful when the whole file is uploaded
+        MessageDigest[] digests = start == 0 ? createInlineDigests() : null;
+
+        if(digests != null) {
+            DigestChannel out = new DigestChannel(fs.writeChannel(file, 0), digests);
+            con.sendResponse(150, response);
+            runTransfer(() -> {
+                try {
+                    if(con.isAsciiMode()) {
+                        con.receiveData(Channels.newOutputStream(out), 0);
+                    } else {
+                        con.receiveData(out);
+                    }
+                } finally {
+                    fs.invalidate(file);
+                }
+                storeDigests(file, out);
+            }, "File received!", out);
+        } else if(con.isAsciiMode()) {
+            OutputStream out = fs.writeFile(file, start);
+            con.sendResponse(150, response);
+            runTransfer(() -> receiveFile(file, () -> con.receiveData(out, start)), "File received!", out);
+        } else {
+            WritableByteChannel out = fs.writeChannel(file, start);
+            con.sendResponse(150, response);
+            runTransfer(() -> receiveFile(file, () -> con.receiveData(out)), "File received!", out);
+        }
+    }
+
+    /**
+     * Runs an upload, notifying the file system when the file stops changing
+     * @param file The file object
+     * @param transfer The transfer task
+     * @throws IOException When an error occurs
+     */
+    private void receiveFile(Object file, Transfer transfer) throws IOException {
+        try {
+            transfer.run();
+        } finally {
+            fs.invalidate(file);
+        }
+    }
+
+    /**
+     * Creates the digests configured to be calculated during uploads
+     * @return The digests or {@code null} if there are none
+     */
+    private MessageDigest[] createInlineDigests() {
+        String[] algorithms = con.getServer().getInlineDigests();
+        if(algorithms.length == 0) return null;
+
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+
+        try {
+            for(int i = 0; i < algorithms.length; i++) {
+                digests[i] = MessageDigest.getInstance(algorithms[i]);
             }
-        }).start();
+        } catch(NoSuchAlgorithmException ex) {
+            // Shouldn't ever happen, the algorithms are checked by the server
+            return null;
+        }
+
+        return digests;
     }
 
     /**
-     * Receives a stream asynchronously, sending a response after it's done
-     * @param out The stream
+     * Offers the digests calculated during an upload to the file system
+     * @param file The file object
+     * @param channel The channel that received the file
      */
-    private void receiveStream(OutputStream out) {
-        new Thread(() -> {
-            try {
-                con.receiveData(out);
-                con.sendResponse(226, "File received!");
-            } catch(ResponseException ex) {
-                con.sendResponse(ex.getCode(), ex.getMessage());
-            } catch(Exception ex) {
-                con.sendResponse(451, ex.getMessage());
+    private void storeDigests(Object file, DigestChannel channel) {
+        try {
+            // Makes sure the file wasn't changed by anything else in the meantime
+            if(!fs.exists(file) || fs.getSize(file) != channel.getCount()) return;
+
+            for(Map.Entry<String, byte[]> digest : channel.getDigests().entrySet()) {
+                fs.putDigest(file, digest.getKey(), digest.getValue());
             }
-        }).start();
+        } catch(IOException ex) {
+            // The file was received, the digests are only an optimization
+        }
+    }
+
+    /**
+     * Submits a transfer to the server, replying when it's done or when the server is saturated
+     * @param transfer The transfer task
+     * @param response The message of the 226 response
+     * @param resource The file resource, closed if the transfer is rejected
+     */
+    private void runTransfer(Transfer transfer, String response, Closeable resource) {
+        try {
+            con.getServer().executeTransfer(() -> {
+                try {
+                    transfer.run();
+                    con.sendResponse(226, response);
+                } catch(ResponseException ex) {
+                    con.sendResponse(ex.getCode(), ex.getMessage());
+                } catch(Exception ex) {
+                    con.sendResponse(451, ex.getMessage());
+                }
+            });
+        } catch(RejectedExecutionException ex) {
+            Utils.closeQuietly(resource);
+            con.sendResponse(425, "Too many transfers in progress, try again later");
+        }
+    }
+
+    /**
+     * Represents a data transfer
+     */
+    @FunctionalInterface
+    private interface Transfer {
+        void run() throws IOException;
     }
 
 }
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.impl;
+
+import com.guichaguri.minimalftp.api.IFileSystem;
+import java.io.*;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * File system that caches the hash digests of another file system.
+ *
+ * Digests are keyed by path, algorithm, range, size and modification time, so changed files are hashed again.
+ * Concurrent requests for the same digest wait for a single computation.
+ *
+ * The cache can optionally be persisted to a file, which is loaded on creation and written by {@link #save()}.
+ *
+ * @author Guilherme Chaguri
+ */
+public class DigestCacheFileSystem<F> extends FileSystemDecorator<F> implements Closeable {
+
+    private static final int FILE_VERSION = 1;
+
+    private final Map<Key, byte[]> cache;
+    private final Map<String, Set<Key>> keysByPath = new HashMap<>();
+    private final Map<Key, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private final File store;
+    private String[] prewarmAlgorithms = {"MD5", "SHA-1", "SHA-256"};
+
+    /**
+     * Creates a digest cache kept only in memory
+     * @param fs The underlying file system
+     * @param maxEntries The maximum amount of cached digests
+     */
+    public DigestCacheFileSystem(IFileSystem<F> fs, int maxEntries) {
+        this(fs, maxEntries, null);
+    }
+
+    /**
+     * Creates a digest cache persisted to a file
+     * @param fs The underlying file system
+     * @param maxEntries The maximum amount of cached digests
+     * @param store The file where the cache is stored or {@code null} to keep it only in memory
+     */
+    public DigestCacheFileSystem(IFileSystem<F> fs, int maxEntries, File store) {
+        super(fs);
+        this.store = store;
+        this.cache = new LinkedHashMap<Key, byte[]>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+                if(size() <= maxEntries) return false;
+
+                unindex(eldest.getKey());
+                return true;
+            }
+        };
+
+        if(store != null && store.exists()) {
+            try {
+                load();
+            } catch(IOException ex) {
+                // A corrupted cache is just discarded
+                clear();
+            }
+        }
+    }
+
+    @Override
+    public byte[] getDigest(F file, String algorithm) throws IOException, NoSuchAlgorithmException {
+        return getDigest(file, algorithm, 0, Long.MAX_VALUE);
+    }
+
+    @Override
+    public byte[] getDigest(F file, String algorithm, long start, long end) throws IOException, NoSuchAlgorithmException {
+        long size = fs.getSize(file);
+        end = Math.min(end, size);
+
+        Key key = new Key(fs.getPath(file), algorithm.toUpperCase(), start, end, size, fs.getLastModified(file));
+        byte[] digest;
+
+        synchronized(cache) {
+            digest = cache.get(key);
+        }
+        if(digest != null) return digest.clone();
+
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = pending.putIfAbsent(key, future);
+
+        if(existing != null) {
+            // Another thread is already calculating the same digest
+            return await(existing).clone();
+        }
+
+        try {
+            digest = calculate(file, key, algorithm);
+
+            future.complete(digest);
+            return digest.clone();
+        } catch(IOException | NoSuchAlgorithmException | RuntimeException ex) {
+            future.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            pending.remove(key, future);
+        }
+    }
+
+    /**
+     * Gets the algorithms that are also calculated when a digest is missing
+     * @return The algorithm names
+     */
+    public String[] getPrewarmAlgorithms() {
+        return prewarmAlgorithms.clone();
+    }
+
+    /**
+     * Sets the algorithms that are also calculated when a digest is missing.
+     *
+     * They're calculated in the same pass over the file, so a client that asks for
+     * another algorithm afterwards doesn't cause the file to be read again.
+     *
+     * By default, the algorithms advertised by the HASH command are used: MD5, SHA-1 and SHA-256
+     *
+     * @param algorithms The algorithm names
+     */
+    public void setPrewarmAlgorithms(String... algorithms) {
+        this.prewarmAlgorithms = algorithms.clone();
+    }
+
+    /**
+     * Calculates a missing digest, along with the missing digests of the prewarm algorithms
+     * @param file The file object
+     * @param key The key of the missing digest
+     * @param algorithm The algorithm name
+     * @return The digest
+     */
+    private byte[] calculate(F file, Key key, String algorithm) throws IOException, NoSuchAlgorithmException {
+        List<String> algorithms = new ArrayList<>();
+        algorithms.add(algorithm);
+
+        synchronized(cache) {
+            for(String prewarm : prewarmAlgorithms) {
+                Key prewarmKey = key.withAlgorithm(prewarm.toUpperCase());
+
+                if(!prewarmKey.equals(key) && !cache.containsKey(prewarmKey) && !pending.containsKey(prewarmKey)) {
+                    algorithms.add(prewarm);
+                }
+            }
+        }
+
+        long end = key.end == key.size ? Long.MAX_VALUE : key.end;
+        Map<String, byte[]> digests = fs.getDigests(file, algorithms.toArray(new String[0]), key.start, end);
+
+        synchronized(cache) {
+            for(Map.Entry<String, byte[]> entry : digests.entrySet()) {
+                put(key.withAlgorithm(entry.getKey().toUpperCase()), entry.getValue());
+            }
+        }
+
+        return digests.get(algorithm);
+    }
+
+    @Override
+    public void putDigest(F file, String algorithm, byte[] digest) throws IOException {
+        long size = fs.getSize(file);
+        Key key = new Key(fs.getPath(file), algorithm.toUpperCase(), 0, size, size, fs.getLastModified(file));
+
+        synchronized(cache) {
+            put(key, digest.clone());
+        }
+
+        fs.putDigest(file, algorithm, digest);
+    }
+
+    @Override
+    public OutputStream writeFile(F file, long start) throws IOException {
+        invalidateDigests(file);
+        return fs.writeFile(file, start);
+    }
+
+    @Override
+    public SeekableByteChannel writeChannel(F file, long start) throws IOException {
+        invalidateDigests(file);
+        return fs.writeChannel(file, start);
+    }
+
+    @Override
+    public void delete(F file) throws IOException {
+        invalidateDigests(file);
+        fs.delete(file);
+    }
+
+    @Override
+    public void rename(F from, F to) throws IOException {
+        invalidateDigests(from);
+        invalidateDigests(to);
+        fs.rename(from, to);
+    }
+
+    @Override
+    public void touch(F file, long time) throws IOException {
+        invalidateDigests(file);
+        fs.touch(file, time);
+    }
+
+    /**
+     * Removes all cached digests of a file
+     * @param file The file object
+     */
+    @Override
+    public void invalidate(F file) {
+        invalidateDigests(file);
+        fs.invalidate(file);
+    }
+
+    private void invalidateDigests(F file) {
+        String path = fs.getPath(file);
+
+        synchronized(cache) {
+            // Only the entries of the file are touched, instead of the whole cache
+            Set<Key> keys = keysByPath.remove(path);
+            if(keys == null) return;
+
+            for(Key key : keys) cache.remove(key);
+        }
+    }
+
+    /**
+     * Caches a digest and indexes it by path. Must be called while holding the cache lock
+     * @param key The digest key
+     * @param digest The digest
+     */
+    private void put(Key key, byte[] digest) {
+        keysByPath.computeIfAbsent(key.path, path -> new HashSet<>()).add(key);
+        cache.put(key, digest);
+    }
+
+    /**
+     * Removes a key from the path index. Must be called while holding the cache lock
+     * @param key The digest key
+     */
+    private void unindex(Key key) {
+        Set<Key> keys = keysByPath.get(key.path);
+        if(keys == null) return;
+
+        keys.remove(key);
+        if(keys.isEmpty()) keysByPath.remove(key.path);
+    }
+
+    /**
+     * Removes all cached digests
+     */
+    public void clear() {
+        synchronized(cache) {
+            cache.clear();
+            keysByPath.clear();
+        }
+    }
+
+    /**
+     * Gets the amount of cached digests
+     * @return The number of entries
+     */
+    public int size() {
+        synchronized(cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Writes the cache to the store file, if there is one
+     * @throws IOException When an error occurs
+     */
+    public void save() throws IOException {
+        if(store == null) return;
+
+        List<Map.Entry<Key, byte[]>> entries;
+        synchronized(cache) {
+            entries = new ArrayList<>(cache.entrySet());
+        }
+
+        File temp = new File(store.getPath() + ".tmp");
+
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(entries.size());
+
+            // From the least to the most recently used, so the order is kept when loading
+            for(Map.Entry<Key, byte[]> entry : entries) {
+                Key key = entry.getKey();
+                out.writeUTF(key.path);
+                out.writeUTF(key.algorithm);
+                out.writeLong(key.start);
+                out.writeLong(key.end);
+                out.writeLong(key.size);
+                out.writeLong(key.lastModified);
+                out.writeShort(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+
+        Files.move(temp.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Saves the cache
+     * @throws IOException When an error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        save();
+    }
+
+    private void load() throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(store)))) {
+            if(in.readInt() != FILE_VERSION) return;
+
+            int count = in.readInt();
+
+            synchronized(cache) {
+                for(int i = 0; i < count; i++) {
+                    Key key = new Key(in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+                    byte[] digest = new byte[in.readUnsignedShort()];
+                    in.readFully(digest);
+                    put(key, digest);
+                }
+            }
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> future) throws IOException, NoSuchAlgorithmException {
+        try {
+            return future.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the digest");
+        } catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException) throw (IOException)cause;
+            if(cause instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException)cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private static class Key {
+        final String path;
+        final String algorithm;
+        final long start, end;
+        final long size;
+        final long lastModified;
+
+        Key(String path, String algorithm, long start, long end, long size, long lastModified) {
+            this.path = path;
+            this.algorithm = algorithm;
+            this.start = start;
+            this.end = end;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        Key withAlgorithm(String algorithm) {
+            return new Key(path, algorithm, start, end, size, lastModified);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+
+            Key key = (Key)o;
+            return start == key.start && end == key.end && size == key.size && lastModified == key.lastModified &&
+                    path.equals(key.path) && algorithm.equals(key.algorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, algorithm, start, end, size, lastModified);
+        }
+    }
+
+}
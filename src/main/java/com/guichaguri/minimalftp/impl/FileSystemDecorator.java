@@ -0,0 +1,230 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.impl;
+
+import com.guichaguri.minimalftp.api.FileAttributes;
+import com.guichaguri.minimalftp.api.IFileSystem;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * File system that forwards every call to another file system.
+ *
+ * Subclasses override the methods they want to enhance, such as adding a cache.
+ *
+ * @author Guilherme Chaguri
+ */
+public class FileSystemDecorator<F> implements IFileSystem<F> {
+
+    protected final IFileSystem<F> fs;
+
+    /**
+     * Creates a decorator
+     * @param fs The underlying file system
+     */
+    public FileSystemDecorator(IFileSystem<F> fs) {
+        this.fs = fs;
+    }
+
+    /**
+     * Gets the underlying file system
+     * @return The file system
+     */
+    public IFileSystem<F> getFileSystem() {
+        return fs;
+    }
+
+    /**
+     * Finds a decorator of a type in a chain of decorators
+     * @param fs The outermost file system
+     * @param type The decorator type
+     * @param <T> The decorator type
+     * @return The decorator or {@code null} if there's none of that type
+     */
+    public static <T> T find(IFileSystem<?> fs, Class<T> type) {
+        while(fs != null) {
+            if(type.isInstance(fs)) return type.cast(fs);
+            fs = fs instanceof FileSystemDecorator ? ((FileSystemDecorator<?>)fs).getFileSystem() : null;
+        }
+        return null;
+    }
+
+    @Override
+    public F getRoot() {
+        return fs.getRoot();
+    }
+
+    @Override
+    public String getPath(F file) {
+        return fs.getPath(file);
+    }
+
+    @Override
+    public boolean exists(F file) {
+        return fs.exists(file);
+    }
+
+    @Override
+    public boolean isDirectory(F file) {
+        return fs.isDirectory(file);
+    }
+
+    @Override
+    public int getPermissions(F file) {
+        return fs.getPermissions(file);
+    }
+
+    @Override
+    public long getSize(F file) {
+        return fs.getSize(file);
+    }
+
+    @Override
+    public long getLastModified(F file) {
+        return fs.getLastModified(file);
+    }
+
+    @Override
+    public int getHardLinks(F file) {
+        return fs.getHardLinks(file);
+    }
+
+    @Override
+    public String getName(F file) {
+        return fs.getName(file);
+    }
+
+    @Override
+    public String getOwner(F file) {
+        return fs.getOwner(file);
+    }
+
+    @Override
+    public String getGroup(F file) {
+        return fs.getGroup(file);
+    }
+
+    @Override
+    public FileAttributes getAttributes(F file) throws IOException {
+        return fs.getAttributes(file);
+    }
+
+    @Override
+    public byte[] getDigest(F file, String algorithm) throws IOException, NoSuchAlgorithmException {
+        return fs.getDigest(file, algorithm);
+    }
+
+    @Override
+    public byte[] getDigest(F file, String algorithm, long start, long end) throws IOException, NoSuchAlgorithmException {
+        return fs.getDigest(file, algorithm, start, end);
+    }
+
+    @Override
+    public Map<String, byte[]> getDigests(F file, String[] algorithms, long start, long end) throws IOException, NoSuchAlgorithmException {
+        return fs.getDigests(file, algorithms, start, end);
+    }
+
+    @Override
+    public void putDigest(F file, String algorithm, byte[] digest) throws IOException {
+        fs.putDigest(file, algorithm, digest);
+    }
+
+    @Override
+    public F getParent(F file) throws IOException {
+        return fs.getParent(file);
+    }
+
+    @Override
+    public F[] listFiles(F dir) throws IOException {
+        return fs.listFiles(dir);
+    }
+
+    @Override
+    public void listFiles(F dir, FileConsumer<F> consumer) throws IOException {
+        fs.listFiles(dir, consumer);
+    }
+
+    @Override
+    public void listAttributes(F dir, AttributesConsumer<F> consumer) throws IOException {
+        fs.listAttributes(dir, consumer);
+    }
+
+    @Override
+    public F findFile(String path) throws IOException {
+        return fs.findFile(path);
+    }
+
+    @Override
+    public F findFile(F cwd, String path) throws IOException {
+        return fs.findFile(cwd, path);
+    }
+
+    @Override
+    public InputStream readFile(F file, long start) throws IOException {
+        return fs.readFile(file, start);
+    }
+
+    @Override
+    public OutputStream writeFile(F file, long start) throws IOException {
+        return fs.writeFile(file, start);
+    }
+
+    @Override
+    public SeekableByteChannel readChannel(F file, long start) throws IOException {
+        return fs.readChannel(file, start);
+    }
+
+    @Override
+    public SeekableByteChannel writeChannel(F file, long start) throws IOException {
+        return fs.writeChannel(file, start);
+    }
+
+    @Override
+    public void mkdirs(F file) throws IOException {
+        fs.mkdirs(file);
+    }
+
+    @Override
+    public void delete(F file) throws IOException {
+        fs.delete(file);
+    }
+
+    @Override
+    public void rename(F from, F to) throws IOException {
+        fs.rename(from, to);
+    }
+
+    @Override
+    public void invalidate(F file) {
+        fs.invalidate(file);
+    }
+
+    @Override
+    public void chmod(F file, int perms) throws IOException {
+        fs.chmod(file, perms);
+    }
+
+    @Override
+    public void touch(F file, long time) throws IOException {
+        fs.touch(file, time);
+    }
+
+}
@@ -0,0 +1,617 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.impl;
+
+import com.guichaguri.minimalftp.api.FileAttributes;
+import com.guichaguri.minimalftp.api.IFileSystem;
+import com.guichaguri.minimalftp.io.BufferPool;
+import com.guichaguri.minimalftp.io.ListingEncoder;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+
+/**
+ * File system that caches the directory listings of another file system.
+ *
+ * Listings are kept with the attributes of every entry and the bytes they were rendered to,
+ * so clients that keep polling the same directory don't cause it to be read again.
+ *
+ * Changes made through this file system discard the affected listings right away.
+ * Changes made outside of it can be detected with a {@link WatchService} when the files
+ * can be converted to paths, such as the files of a {@link NativeFileSystem}.
+ * Only watched listings answer lookups of single files, such as {@link #exists(Object)}.
+ *
+ * @author Guilherme Chaguri
+ */
+public class ListingCacheFileSystem<F> extends FileSystemDecorator<F> implements Closeable {
+
+    private static final int RENDER_BUFFER_SIZE = 16 * 1024;
+
+    private final Map<String, Listing<F>> cache;
+    private final Map<WatchKey, String> watched = new HashMap<>();
+    private final Function<F, Path> watchPath;
+    private WatchService watcher = null;
+    private boolean closed = false;
+    private long version = 0;
+    private int maxDirectorySize = 10000;
+    private BufferPool bufferPool = BufferPool.getDefault();
+    private ThreadFactory threadFactory = Thread::new;
+
+    /**
+     * Creates a listing cache that only detects changes made through it.
+     *
+     * The listings are still cached, but lookups of single files always go to the underlying file system.
+     *
+     * @param fs The underlying file system
+     * @param maxEntries The maximum amount of cached listings
+     */
+    public ListingCacheFileSystem(IFileSystem<F> fs, int maxEntries) {
+        this(fs, maxEntries, null);
+    }
+
+    /**
+     * Creates a listing cache that also watches the cached directories for changes.
+     *
+     * For a {@link NativeFileSystem}, use {@code File::toPath}.
+     *
+     * @param fs The underlying file system
+     * @param maxEntries The maximum amount of cached listings
+     * @param watchPath Converts a directory to a path that can be watched or {@code null} to not watch
+     */
+    public ListingCacheFileSystem(IFileSystem<F> fs, int maxEntries, Function<F, Path> watchPath) {
+        super(fs);
+        this.watchPath = watchPath;
+        this.cache = new LinkedHashMap<String, Listing<F>>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Listing<F>> eldest) {
+                if(size() <= maxEntries) return false;
+
+                unwatch(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets the maximum amount of entries of a cached directory
+     * @return The number of entries
+     */
+    public int getMaxDirectorySize() {
+        return maxDirectorySize;
+    }
+
+    /**
+     * Sets the maximum amount of entries of a cached directory.
+     *
+     * Larger directories are always listed from the underlying file system,
+     * which avoids keeping all of their entries in memory.
+     *
+     * The default value is 10000
+     *
+     * @param maxDirectorySize The number of entries
+     */
+    public void setMaxDirectorySize(int maxDirectorySize) {
+        this.maxDirectorySize = maxDirectorySize;
+    }
+
+    /**
+     * Gets the pool that provides the buffers for rendering the listings
+     * @return The buffer pool
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Sets the pool that provides the buffers for rendering the listings.
+     *
+     * Servers set it to their own pool when a connection starts using this file system.
+     *
+     * @param bufferPool The buffer pool
+     */
+    public void setBufferPool(BufferPool bufferPool) {
+        if(bufferPool == null) throw new NullPointerException("The buffer pool can't be null");
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Gets the factory that creates the thread which watches the directories
+     * @return The thread factory
+     */
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    /**
+     * Sets the factory that creates the thread which watches the directories.
+     *
+     * Servers set it to their own factory when a connection starts using this file system.
+     *
+     * @param threadFactory The thread factory
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        if(threadFactory == null) throw new NullPointerException("The thread factory can't be null");
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Gets the amount of cached listings
+     * @return The number of listings
+     */
+    public int size() {
+        synchronized(cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Removes all cached listings
+     */
+    public void clear() {
+        synchronized(cache) {
+            version++;
+            for(Listing<F> listing : cache.values()) unwatch(listing);
+            cache.clear();
+        }
+    }
+
+    /**
+     * Gets the rendered bytes of a directory listing.
+     *
+     * The listing is rendered once per format and kept until the directory changes.
+     *
+     * Directories that aren't cached yet aren't read here, so the caller can list them through
+     * {@link #listAttributes(Object, AttributesConsumer)}, which caches them while streaming the entries.
+     *
+     * @param dir The directory
+     * @param format The format name, which should identify the renderer and its options
+     * @param renderer Renders each entry in the UTF-8 format
+     * @return The listing bytes or {@code null} when the directory isn't cached
+     * @throws IOException When the directory couldn't be listed
+     */
+    public byte[] getRenderedListing(F dir, String format, ListingEncoder.Renderer<F> renderer) throws IOException {
+        Listing<F> listing = getListing(dir);
+        if(listing == null || listing.tooLarge) return null;
+
+        synchronized(listing) {
+            byte[] bytes = listing.rendered.get(format);
+
+            if(bytes == null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                try(ListingEncoder encoder = new ListingEncoder(out, bufferPool, RENDER_BUFFER_SIZE, false)) {
+                    for(int i = 0; i < listing.files.size(); i++) {
+                        renderer.render(encoder, listing.files.get(i), listing.attributes.get(i));
+                    }
+                }
+
+                bytes = out.toByteArray();
+                listing.rendered.put(format, bytes);
+            }
+
+            return bytes;
+        }
+    }
+
+    @Override
+    public boolean exists(F file) {
+        Listing<F> parent = getParentListing(file);
+        if(parent != null) return parent.index.containsKey(getFileName(file));
+
+        return fs.exists(file);
+    }
+
+    @Override
+    public boolean isDirectory(F file) {
+        FileAttributes attributes = getCachedAttributes(file);
+        return attributes != null ? attributes.isDirectory() : fs.isDirectory(file);
+    }
+
+    @Override
+    public long getSize(F file) {
+        // Always read from the file system, as APPE and REST take their offsets from it
+        return fs.getSize(file);
+    }
+
+    @Override
+    public long getLastModified(F file) {
+        FileAttributes attributes = getCachedAttributes(file);
+        return attributes != null ? attributes.getLastModified() : fs.getLastModified(file);
+    }
+
+    @Override
+    public FileAttributes getAttributes(F file) throws IOException {
+        FileAttributes attributes = getCachedAttributes(file);
+        return attributes != null ? attributes : fs.getAttributes(file);
+    }
+
+    @Override
+    public void listFiles(F dir, FileConsumer<F> consumer) throws IOException {
+        Listing<F> listing = getListing(dir);
+
+        if(listing == null) {
+            load(dir, (file, attributes) -> consumer.accept(file));
+        } else if(listing.tooLarge) {
+            fs.listFiles(dir, consumer);
+        } else {
+            for(F file : listing.files) consumer.accept(file);
+        }
+    }
+
+    @Override
+    public void listAttributes(F dir, AttributesConsumer<F> consumer) throws IOException {
+        Listing<F> listing = getListing(dir);
+
+        if(listing == null) {
+            load(dir, consumer);
+        } else if(listing.tooLarge) {
+            fs.listAttributes(dir, consumer);
+        } else {
+            for(int i = 0; i < listing.files.size(); i++) {
+                consumer.accept(listing.files.get(i), listing.attributes.get(i));
+            }
+        }
+    }
+
+    @Override
+    public OutputStream writeFile(F file, long start) throws IOException {
+        invalidatePath(getNormalizedPath(file), false);
+        return fs.writeFile(file, start);
+    }
+
+    @Override
+    public SeekableByteChannel writeChannel(F file, long start) throws IOException {
+        invalidatePath(getNormalizedPath(file), false);
+        return fs.writeChannel(file, start);
+    }
+
+    @Override
+    public void mkdirs(F file) throws IOException {
+        try {
+            fs.mkdirs(file);
+        } finally {
+            // Any of the parent directories might have been created too
+            for(String path = getNormalizedPath(file); path != null; path = getParentPath(path)) {
+                invalidatePath(path, false);
+            }
+        }
+    }
+
+    @Override
+    public void delete(F file) throws IOException {
+        try {
+            fs.delete(file);
+        } finally {
+            invalidatePath(getNormalizedPath(file), true);
+        }
+    }
+
+    @Override
+    public void rename(F from, F to) throws IOException {
+        try {
+            fs.rename(from, to);
+        } finally {
+            invalidatePath(getNormalizedPath(from), true);
+            invalidatePath(getNormalizedPath(to), true);
+        }
+    }
+
+    @Override
+    public void invalidate(F file) {
+        invalidatePath(getNormalizedPath(file), true);
+        fs.invalidate(file);
+    }
+
+    @Override
+    public void chmod(F file, int perms) throws IOException {
+        try {
+            fs.chmod(file, perms);
+        } finally {
+            invalidatePath(getNormalizedPath(file), false);
+        }
+    }
+
+    @Override
+    public void touch(F file, long time) throws IOException {
+        try {
+            fs.touch(file, time);
+        } finally {
+            invalidatePath(getNormalizedPath(file), false);
+        }
+    }
+
+    /**
+     * Stops watching the directories and discards the cached listings
+     */
+    @Override
+    public void close() throws IOException {
+        WatchService service;
+
+        synchronized(cache) {
+            closed = true;
+            service = watcher;
+            watcher = null;
+
+            version++;
+            cache.clear();
+            watched.clear();
+        }
+
+        if(service != null) service.close();
+    }
+
+    private Listing<F> getListing(F dir) {
+        String path = getNormalizedPath(dir);
+
+        synchronized(cache) {
+            return cache.get(path);
+        }
+    }
+
+    /**
+     * Gets the cached listing that contains a file, when it can answer attribute lookups
+     * @param file The file object
+     * @return The listing or {@code null} if it's not cached or not watched
+     */
+    private Listing<F> getParentListing(F file) {
+        String parent = getParentPath(getNormalizedPath(file));
+        if(parent == null) return null;
+
+        synchronized(cache) {
+            Listing<F> listing = cache.get(parent);
+
+            // Without a watch, changes made outside of this file system would never be seen
+            return listing == null || listing.tooLarge || listing.key == null ? null : listing;
+        }
+    }
+
+    private FileAttributes getCachedAttributes(F file) {
+        Listing<F> parent = getParentListing(file);
+        if(parent == null) return null;
+
+        Integer i = parent.index.get(getFileName(file));
+        return i != null ? parent.attributes.get(i) : null;
+    }
+
+    /**
+     * Lists a directory and caches it, passing the entries to a consumer as they're read
+     * @param dir The directory
+     * @param consumer The consumer or {@code null}
+     * @return The listing, which might not have been cached
+     */
+    private Listing<F> load(F dir, AttributesConsumer<F> consumer) throws IOException {
+        String path = getNormalizedPath(dir);
+        long start;
+
+        synchronized(cache) {
+            start = version;
+        }
+
+        // Starts watching before listing, so changes made in the meantime aren't missed
+        WatchKey key = watch(dir, path);
+        Listing<F> listing = new Listing<>(key);
+        int maxSize = maxDirectorySize;
+
+        try {
+            fs.listAttributes(dir, (file, attributes) -> {
+                listing.add(file, attributes, maxSize);
+                if(consumer != null) consumer.accept(file, attributes);
+            });
+        } catch(IOException | RuntimeException ex) {
+            discard(path, listing);
+            throw ex;
+        }
+
+        synchronized(cache) {
+            if(version == start && (key != null || watchPath == null) && !closed) {
+                // Listings of large directories only keep the mark, so they aren't collected every time
+                if(listing.tooLarge) listing.clear();
+
+                Listing<F> old = cache.put(path, listing);
+                if(old != null && old.key != key) unwatch(old);
+            } else {
+                discard(path, listing);
+            }
+        }
+
+        return listing;
+    }
+
+    /**
+     * Starts watching a directory
+     * @param dir The directory
+     * @param path The normalized path
+     * @return The watch key or {@code null} if it can't be watched
+     */
+    private WatchKey watch(F dir, String path) {
+        if(watchPath == null) return null;
+
+        try {
+            Path watchedPath = watchPath.apply(dir);
+
+            synchronized(cache) {
+                if(closed) return null;
+
+                if(watcher == null) {
+                    watcher = FileSystems.getDefault().newWatchService();
+
+                    Thread thread = threadFactory.newThread(this::processEvents);
+                    thread.setName("FTP Listing Watcher");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+
+                WatchKey key = watchedPath.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                watched.put(key, path);
+                return key;
+            }
+        } catch(IOException | UnsupportedOperationException | ClosedWatchServiceException ex) {
+            // Without a watch, changes made outside of the server can't be detected, so it won't be cached
+            return null;
+        }
+    }
+
+    /**
+     * Stops watching a listing that wasn't cached, unless another cached listing shares its watch key
+     * @param path The normalized path
+     * @param listing The listing
+     */
+    private void discard(String path, Listing<F> listing) {
+        synchronized(cache) {
+            Listing<F> cached = cache.get(path);
+            if(cached == null || cached.key != listing.key) unwatch(listing);
+        }
+    }
+
+    private void unwatch(Listing<F> listing) {
+        if(listing.key == null) return;
+
+        listing.key.cancel();
+        watched.remove(listing.key);
+    }
+
+    /**
+     * Discards the listings affected by a change in a file
+     * @param path The normalized path of the file
+     * @param tree Whether the listings of the subdirectories are discarded too
+     */
+    private void invalidatePath(String path, boolean tree) {
+        synchronized(cache) {
+            version++;
+
+            // The directory that contains the file changed, and so did its modification time in the listing above it
+            String parent = getParentPath(path);
+            String grandparent = parent != null ? getParentPath(parent) : null;
+            String prefix = path.isEmpty() ? "" : path + "/";
+
+            Iterator<Map.Entry<String, Listing<F>>> it = cache.entrySet().iterator();
+
+            while(it.hasNext()) {
+                Map.Entry<String, Listing<F>> entry = it.next();
+                String key = entry.getKey();
+
+                if(key.equals(path) || key.equals(parent) || key.equals(grandparent) || (tree && key.startsWith(prefix))) {
+                    unwatch(entry.getValue());
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards the listings of the watched directories that changed. Runs in the watcher thread
+     */
+    private void processEvents() {
+        WatchService service;
+
+        synchronized(cache) {
+            service = watcher;
+        }
+
+        while(true) {
+            WatchKey key;
+
+            try {
+                key = service.take();
+            } catch(InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+
+            key.pollEvents();
+
+            synchronized(cache) {
+                // The directory will be watched again when it's listed
+                String path = watched.remove(key);
+                key.cancel();
+
+                if(path != null) invalidatePath(path, false);
+            }
+        }
+    }
+
+    private String getNormalizedPath(F file) {
+        String path = fs.getPath(file);
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private String getFileName(F file) {
+        String path = getNormalizedPath(file);
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static String getParentPath(String path) {
+        if(path.isEmpty()) return null;
+
+        int i = path.lastIndexOf('/');
+        return i < 0 ? "" : path.substring(0, i);
+    }
+
+    /**
+     * The entries of a directory
+     */
+    private static class Listing<F> {
+
+        final WatchKey key;
+        final List<F> files = new ArrayList<>();
+        final List<FileAttributes> attributes = new ArrayList<>();
+        final Map<String, Integer> index = new HashMap<>();
+        final Map<String, byte[]> rendered = new HashMap<>();
+        boolean tooLarge = false;
+
+        Listing(WatchKey key) {
+            this.key = key;
+        }
+
+        void add(F file, FileAttributes attributes, int maxSize) {
+            if(tooLarge) return;
+
+            if(files.size() >= maxSize) {
+                tooLarge = true;
+                clear();
+                return;
+            }
+
+            index.put(attributes.getName(), files.size());
+            files.add(file);
+            this.attributes.add(attributes);
+        }
+
+        void clear() {
+            files.clear();
+            attributes.clear();
+            index.clear();
+        }
+    }
+
+}
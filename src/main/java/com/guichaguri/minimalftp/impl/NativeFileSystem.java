@@ -17,11 +17,27 @@
 package com.guichaguri.minimalftp.impl;
 
 import com.guichaguri.minimalftp.Utils;
+import com.guichaguri.minimalftp.api.FileAttributes;
 import com.guichaguri.minimalftp.api.IFileSystem;
+import com.guichaguri.minimalftp.io.BufferPool;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Native File System
@@ -31,7 +47,10 @@ import java.util.Comparator;
  */
 public class NativeFileSystem implements IFileSystem<File> {
 
+    private static final int DIGEST_SLICE = 256 * 1024;
+
     private final File rootDir;
+    private final boolean posix;
 
     /**
      * Creates a native file system.
@@ -43,6 +62,8 @@ public class NativeFileSystem implements IFileSystem<File> {
         this.rootDir = rootDir;
 
         if(!rootDir.exists()) rootDir.mkdirs();
+
+        this.posix = rootDir.toPath().getFileSystem().supportedFileAttributeViews().contains("posix");
     }
 
     @Override
@@ -89,6 +110,56 @@ public class NativeFileSystem implements IFileSystem<File> {
         return file.getName();
     }
 
+    @Override
+    public FileAttributes getAttributes(File file) throws IOException {
+        return readAttributes(file, file.toPath());
+    }
+
+    @Override
+    public byte[] getDigest(File file, String algorithm, long start, long end) throws IOException, NoSuchAlgorithmException {
+        return getDigests(file, new String[] {algorithm}, start, end).get(algorithm);
+    }
+
+    @Override
+    public Map<String, byte[]> getDigests(File file, String[] algorithms, long start, long end) throws IOException, NoSuchAlgorithmException {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        for(int i = 0; i < algorithms.length; i++) {
+            digests[i] = MessageDigest.getInstance(algorithms[i]);
+        }
+
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            end = Math.min(end, channel.size());
+
+            BufferPool pool = BufferPool.getDefault();
+            ByteBuffer buffer = pool.acquireDirect(DIGEST_SLICE);
+
+            try {
+                long position = start;
+
+                // Positional reads into a single buffer, which is fed to all digests in the same pass
+                while(position < end) {
+                    buffer.clear();
+                    buffer.limit((int)Math.min(buffer.capacity(), end - position));
+
+                    int length = channel.read(buffer, position);
+                    if(length == -1) break;
+
+                    position += length;
+                    buffer.flip();
+                    updateDigests(digests, buffer);
+                }
+            } finally {
+                pool.release(buffer);
+            }
+        }
+
+        Map<String, byte[]> result = new LinkedHashMap<>();
+        for(int i = 0; i < algorithms.length; i++) {
+            result.put(algorithms[i], digests[i].digest());
+        }
+        return result;
+    }
+
     @Override
     public File getParent(File file) throws IOException {
         if(file.equals(rootDir)) {
@@ -105,6 +176,43 @@ public class NativeFileSystem implements IFileSystem<File> {
         return dir.listFiles();
     }
 
+    @Override
+    public void listFiles(File dir, FileConsumer<File> consumer) throws IOException {
+        if(!dir.isDirectory()) throw new IOException("Not a directory");
+
+        // Iterates through the entries without loading the whole directory
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for(Path path : stream) {
+                consumer.accept(path.toFile());
+            }
+        } catch(DirectoryIteratorException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    @Override
+    public void listAttributes(File dir, AttributesConsumer<File> consumer) throws IOException {
+        if(!dir.isDirectory()) throw new IOException("Not a directory");
+
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for(Path path : stream) {
+                File file = path.toFile();
+                FileAttributes attributes;
+
+                try {
+                    attributes = readAttributes(file, path);
+                } catch(NoSuchFileException ex) {
+                    // The file was deleted while the directory was being listed
+                    continue;
+                }
+
+                consumer.accept(file, attributes);
+            }
+        } catch(DirectoryIteratorException ex) {
+            throw ex.getCause();
+        }
+    }
+
     @Override
     public File findFile(File cwd, String path) throws IOException {
         File file = new File(cwd, path);
@@ -160,6 +268,39 @@ public class NativeFileSystem implements IFileSystem<File> {
         };
     }
 
+    @Override
+    public FileChannel readChannel(File file, long start) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+            channel.position(start);
+        } catch(IOException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        return channel;
+    }
+
+    @Override
+    public FileChannel writeChannel(File file, long start) throws IOException {
+        if(start <= 0) {
+            return FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+
+        try {
+            channel.position(start);
+        } catch(IOException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        return channel;
+    }
+
     @Override
     public void mkdirs(File file) throws IOException {
         if(!file.mkdirs()) throw new IOException("Couldn't create the directory");
@@ -199,6 +340,80 @@ public class NativeFileSystem implements IFileSystem<File> {
         if(!file.setLastModified(time)) throw new IOException("Couldn't touch the file");
     }
 
+    /**
+     * Reads all the metadata of a file, including the POSIX mode when the platform supports it
+     * @param file The file object
+     * @param path The file path
+     * @return The file attributes
+     * @throws IOException When an error occurs
+     */
+    private FileAttributes readAttributes(File file, Path path) throws IOException {
+        BasicFileAttributes attributes;
+        int perms = getPermissions(file);
+        int mode;
+
+        if(posix) {
+            PosixFileAttributes posixAttributes = Files.readAttributes(path, PosixFileAttributes.class);
+            attributes = posixAttributes;
+            mode = toPermissions(posixAttributes.permissions());
+        } else {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            mode = perms;
+        }
+
+        boolean dir = attributes.isDirectory();
+
+        return new FileAttributes(file.getName(), dir, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                perms, mode, dir ? 3 : 1, getOwner(file), getGroup(file));
+    }
+
+    /**
+     * Converts POSIX permissions into a permission number
+     * @param permissions The POSIX permissions
+     * @return The octal permission number
+     */
+    private static int toPermissions(Set<PosixFilePermission> permissions) {
+        int perms = 0;
+
+        for(PosixFilePermission permission : permissions) {
+            switch(permission) {
+                case OWNER_READ: perms = Utils.setPermission(perms, Utils.CAT_OWNER + Utils.TYPE_READ, true); break;
+                case OWNER_WRITE: perms = Utils.setPermission(perms, Utils.CAT_OWNER + Utils.TYPE_WRITE, true); break;
+                case OWNER_EXECUTE: perms = Utils.setPermission(perms, Utils.CAT_OWNER + Utils.TYPE_EXECUTE, true); break;
+                case GROUP_READ: perms = Utils.setPermission(perms, Utils.CAT_GROUP + Utils.TYPE_READ, true); break;
+                case GROUP_WRITE: perms = Utils.setPermission(perms, Utils.CAT_GROUP + Utils.TYPE_WRITE, true); break;
+                case GROUP_EXECUTE: perms = Utils.setPermission(perms, Utils.CAT_GROUP + Utils.TYPE_EXECUTE, true); break;
+                case OTHERS_READ: perms = Utils.setPermission(perms, Utils.CAT_PUBLIC + Utils.TYPE_READ, true); break;
+                case OTHERS_WRITE: perms = Utils.setPermission(perms, Utils.CAT_PUBLIC + Utils.TYPE_WRITE, true); break;
+                case OTHERS_EXECUTE: perms = Utils.setPermission(perms, Utils.CAT_PUBLIC + Utils.TYPE_EXECUTE, true); break;
+            }
+        }
+
+        return perms;
+    }
+
+    /**
+     * Updates every digest with the remaining data of a buffer.
+     *
+     * The buffer is split in slices that are fed to all digests while they're still in the CPU cache.
+     *
+     * @param digests The digests
+     * @param buffer The buffer
+     */
+    private static void updateDigests(MessageDigest[] digests, ByteBuffer buffer) {
+        int limit = buffer.limit();
+
+        for(int offset = buffer.position(); offset < limit; offset += DIGEST_SLICE) {
+            int sliceEnd = Math.min(offset + DIGEST_SLICE, limit);
+
+            for(MessageDigest digest : digests) {
+                buffer.limit(sliceEnd);
+                buffer.position(offset);
+                digest.update(buffer);
+            }
+        }
+    }
+
     private boolean isInside(File dir, File file) {
         if(file.equals(dir)) return true;
 
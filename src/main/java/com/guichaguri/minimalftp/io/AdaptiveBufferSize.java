@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+/**
+ * Picks the buffer size of a transfer.
+ *
+ * The initial size is based on the file size, when it's known. While the transfer runs,
+ * the size grows to hold a few milliseconds worth of data at the measured throughput,
+ * so fast links do less but larger I/O operations.
+ *
+ * @author Guilherme Chaguri
+ */
+public class AdaptiveBufferSize {
+
+    private static final long WINDOW = 50_000_000L; // 50 ms
+    private static final long TARGET_LATENCY = 10_000_000L; // 10 ms
+
+    private final int minSize;
+    private final int maxSize;
+    private int size;
+
+    private long windowStart = System.nanoTime();
+    private long windowBytes = 0;
+
+    /**
+     * Creates an adaptive buffer size
+     * @param minSize The minimum size in bytes
+     * @param maxSize The maximum size in bytes
+     * @param defaultSize The initial size when the file size is unknown
+     * @param fileSize The amount of bytes to be transferred or {@code -1} if unknown
+     */
+    public AdaptiveBufferSize(int minSize, int maxSize, int defaultSize, long fileSize) {
+        this.minSize = minSize;
+        this.maxSize = Math.max(minSize, maxSize);
+        this.size = clamp(fileSize >= 0 ? fileSize : defaultSize);
+    }
+
+    /**
+     * Gets the current buffer size
+     * @return The size in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Records a transferred chunk
+     * @param bytes The amount of bytes transferred
+     * @return Whether the buffer size has changed
+     */
+    public boolean update(int bytes) {
+        if(size >= maxSize) return false;
+
+        windowBytes += bytes;
+
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if(elapsed < WINDOW) return false;
+
+        // Amount of bytes transferred in the target latency at the measured rate
+        long target = windowBytes * TARGET_LATENCY / elapsed;
+
+        windowStart = now;
+        windowBytes = 0;
+
+        if(target <= size) return false;
+
+        // Grows at most four times per window to avoid overshooting on bursts
+        size = clamp(Math.min(target, (long)size * 4));
+        return true;
+    }
+
+    private int clamp(long size) {
+        if(size <= minSize) return minSize;
+        if(size >= maxSize) return maxSize;
+
+        // Rounds to the next power of two, which matches the pooled buffers
+        int rounded = Integer.highestOneBit((int)size - 1) << 1;
+        return Math.max(minSize, Math.min(maxSize, rounded));
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+/**
+ * Translates line breaks between the local format (LF) and the network ASCII format (CRLF).
+ *
+ * Data is translated a block at a time, copying whole runs between line breaks.
+ * An instance keeps the state between blocks, so a line break split across two blocks
+ * is still translated correctly. Use one instance per transfer.
+ *
+ * @author Guilherme Chaguri
+ */
+public class AsciiTranslator {
+
+    private byte lastByte;
+    private boolean pendingCR = false;
+
+    /**
+     * Creates a translator for a transfer from the start
+     */
+    public AsciiTranslator() {
+        this(false);
+    }
+
+    /**
+     * Creates a translator for a transfer that is restarted
+     * @param afterCR Whether the data sent before ended with a CR, so a LF at the start isn't translated
+     */
+    public AsciiTranslator(boolean afterCR) {
+        this.lastByte = afterCR ? (byte)'\r' : 0;
+    }
+
+    /**
+     * Converts LF line breaks into CRLF, keeping the existing CRLF line breaks as is.
+     *
+     * The destination array needs to hold up to twice the length.
+     *
+     * @param src The source array
+     * @param off The source offset
+     * @param len The amount of bytes to translate
+     * @param dst The destination array
+     * @param dstOff The destination offset
+     * @return The amount of bytes written into the destination
+     */
+    public int toNetwork(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        if(len <= 0) return 0;
+
+        int end = off + len;
+        int d = dstOff;
+        int run = off;
+        byte last = lastByte;
+
+        for(int i = off; i < end; i++) {
+            byte b = src[i];
+
+            if(b == '\n' && last != '\r') {
+                int l = i - run;
+                System.arraycopy(src, run, dst, d, l);
+                d += l;
+                dst[d++] = '\r';
+                run = i;
+            }
+
+            last = b;
+        }
+
+        int l = end - run;
+        System.arraycopy(src, run, dst, d, l);
+        d += l;
+
+        lastByte = last;
+        return d - dstOff;
+    }
+
+    /**
+     * Converts CRLF line breaks into LF.
+     *
+     * A CR at the end of the block is held until the next block is translated.
+     * The destination array needs to hold the length plus one byte.
+     *
+     * @param src The source array
+     * @param off The source offset
+     * @param len The amount of bytes to translate
+     * @param dst The destination array
+     * @param dstOff The destination offset
+     * @return The amount of bytes written into the destination
+     */
+    public int fromNetwork(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        if(len <= 0) return 0;
+
+        int end = off + len;
+        int d = dstOff;
+
+        if(pendingCR) {
+            pendingCR = false;
+            if(src[off] != '\n') dst[d++] = '\r';
+        }
+
+        int run = off;
+
+        for(int i = off; i < end; i++) {
+            if(src[i] != '\r') continue;
+
+            if(i + 1 == end) {
+                // We don't know yet whether the next block starts with LF
+                pendingCR = true;
+            } else if(src[i + 1] != '\n') {
+                continue;
+            }
+
+            int l = i - run;
+            System.arraycopy(src, run, dst, d, l);
+            d += l;
+            run = i + 1;
+        }
+
+        int l = end - run;
+        System.arraycopy(src, run, dst, d, l);
+        d += l;
+
+        return d - dstOff;
+    }
+
+    /**
+     * Writes the data held by {@link #fromNetwork(byte[], int, int, byte[], int)} when the transfer ends
+     * @param dst The destination array
+     * @param dstOff The destination offset
+     * @return The amount of bytes written into the destination
+     */
+    public int finish(byte[] dst, int dstOff) {
+        if(!pendingCR) return 0;
+
+        pendingCR = false;
+        dst[dstOff] = '\r';
+        return 1;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes data in the block transfer mode (RFC 959, section 3.4.2).
+ *
+ * Each read only returns data from a single block, so the restart markers can be acknowledged
+ * at the exact position they were received.
+ *
+ * @author Guilherme Chaguri
+ */
+public class BlockInputStream extends FilterInputStream {
+
+    private int remaining = 0;
+    private boolean lastBlock = false;
+    private String marker = null;
+
+    /**
+     * Creates a block stream
+     * @param in The input stream
+     */
+    public BlockInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Gets the last restart marker received, clearing it afterwards.
+     *
+     * All data before the marker has been returned when this method is called after a read.
+     *
+     * @return The restart marker or {@code null} if none was received since the last call
+     */
+    public String pollMarker() {
+        String m = marker;
+        marker = null;
+        return m;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0) return 0;
+
+        while(remaining == 0) {
+            if(lastBlock) return -1;
+            readHeader();
+        }
+
+        int length = in.read(b, off, Math.min(len, remaining));
+        if(length == -1) throw new EOFException("The block stream ended in the middle of a block");
+
+        remaining -= length;
+        return length;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] b = new byte[(int)Math.min(n, 8192)];
+        int length = read(b, 0, b.length);
+        return Math.max(length, 0);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return Math.min(remaining, in.available());
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void readHeader() throws IOException {
+        int descriptor = in.read();
+        int high = in.read();
+        int low = in.read();
+
+        if(low == -1) throw new EOFException("The block stream ended without an EOF block");
+
+        int length = (high << 8) | low;
+
+        if((descriptor & BlockOutputStream.DESCRIPTOR_RESTART_MARKER) != 0) {
+            byte[] data = new byte[length];
+            int read = 0;
+
+            while(read < length) {
+                int l = in.read(data, read, length - read);
+                if(l == -1) throw new EOFException("The block stream ended in the middle of a block");
+                read += l;
+            }
+
+            marker = new String(data, StandardCharsets.US_ASCII);
+        } else {
+            remaining = length;
+        }
+
+        if((descriptor & BlockOutputStream.DESCRIPTOR_EOF) != 0) lastBlock = true;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes data in the block transfer mode (RFC 959, section 3.4.2).
+ *
+ * Restart markers are periodically inserted with the file offset in decimal,
+ * which can be used with the REST command to resume the transfer.
+ *
+ * @author Guilherme Chaguri
+ */
+public class BlockOutputStream extends FilterOutputStream {
+
+    public static final int DESCRIPTOR_EOR = 128;
+    public static final int DESCRIPTOR_EOF = 64;
+    public static final int DESCRIPTOR_ERRORS = 32;
+    public static final int DESCRIPTOR_RESTART_MARKER = 16;
+
+    static final int MAX_BLOCK_SIZE = 65535;
+
+    private final byte[] block;
+    private final long markerInterval;
+    private int count = 0;
+    private long offset;
+    private long nextMarker;
+    private boolean closed = false;
+
+    /**
+     * Creates a block stream
+     * @param out The output stream
+     * @param offset The file offset of the first byte
+     * @param markerInterval The amount of bytes between restart markers or {@code 0} to disable them
+     * @param blockSize The maximum amount of data in each block
+     */
+    public BlockOutputStream(OutputStream out, long offset, long markerInterval, int blockSize) {
+        super(out);
+        this.block = new byte[Math.max(1, Math.min(blockSize, MAX_BLOCK_SIZE))];
+        this.markerInterval = markerInterval;
+        this.offset = offset;
+        this.nextMarker = markerInterval > 0 ? offset + markerInterval : Long.MAX_VALUE;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len > 0) {
+            int length = (int)Math.min(Math.min(len, block.length - count), nextMarker - offset);
+
+            System.arraycopy(b, off, block, count, length);
+            count += length;
+            offset += length;
+            off += length;
+            len -= length;
+
+            if(offset == nextMarker) {
+                writeBlock();
+                writeMarker();
+                nextMarker += markerInterval;
+            } else if(count == block.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+
+        try {
+            writeBlock();
+            writeHeader(DESCRIPTOR_EOF, 0);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if(count == 0) return;
+
+        writeHeader(0, count);
+        out.write(block, 0, count);
+        count = 0;
+    }
+
+    private void writeMarker() throws IOException {
+        byte[] marker = Long.toString(offset).getBytes(StandardCharsets.US_ASCII);
+
+        writeHeader(DESCRIPTOR_RESTART_MARKER, marker.length);
+        out.write(marker);
+    }
+
+    private void writeHeader(int descriptor, int length) throws IOException {
+        out.write(new byte[] {(byte)descriptor, (byte)(length >> 8), (byte)length});
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of reusable byte buffers.
+ *
+ * Buffers are grouped by power of two sizes. Released buffers are kept until the total
+ * pooled memory reaches the limit, after which they're left to the garbage collector.
+ *
+ * @author Guilherme Chaguri
+ */
+public class BufferPool {
+
+    private static final int MIN_SHIFT = 10; // 1 KB
+    private static final int MAX_SHIFT = 24; // 16 MB
+
+    private static final BufferPool DEFAULT = new BufferPool(32 * 1024 * 1024, false);
+
+    /**
+     * Gets the pool shared by default between all servers
+     * @return The default pool
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    private final Queue<ByteBuffer>[] heapBuffers = createQueues();
+    private final Queue<ByteBuffer>[] directBuffers = createQueues();
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final boolean direct;
+    private volatile long maxPooledBytes;
+
+    /**
+     * Creates a buffer pool
+     * @param maxPooledBytes The maximum amount of memory kept in the pool
+     * @param direct Whether {@link #acquire(int)} returns direct buffers
+     */
+    public BufferPool(long maxPooledBytes, boolean direct) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.direct = direct;
+    }
+
+    /**
+     * Gets whether {@link #acquire(int)} returns direct buffers
+     * @return {@code true} for direct buffers, {@code false} for heap buffers
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Gets the maximum amount of memory kept in the pool
+     * @return The limit in bytes
+     */
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    /**
+     * Sets the maximum amount of memory kept in the pool.
+     *
+     * Buffers in use don't count towards the limit.
+     *
+     * @param maxPooledBytes The limit in bytes
+     */
+    public void setMaxPooledBytes(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Gets the amount of memory currently kept in the pool
+     * @return The amount in bytes
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Acquires a buffer, which is direct if the pool was configured to.
+     *
+     * The buffer limit is set to the requested size.
+     *
+     * @param size The minimum size in bytes
+     * @return The buffer
+     */
+    public ByteBuffer acquire(int size) {
+        return acquire(size, direct);
+    }
+
+    /**
+     * Acquires a heap buffer, which is always backed by an array starting at offset {@code 0}.
+     *
+     * The buffer limit is set to the requested size.
+     *
+     * @param size The minimum size in bytes
+     * @return The buffer
+     */
+    public ByteBuffer acquireHeap(int size) {
+        return acquire(size, false);
+    }
+
+    /**
+     * Acquires a direct buffer, which can be read into by channels without an intermediate copy.
+     *
+     * The buffer limit is set to the requested size.
+     *
+     * @param size The minimum size in bytes
+     * @return The buffer
+     */
+    public ByteBuffer acquireDirect(int size) {
+        return acquire(size, true);
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer should not be used afterwards.
+     * @param buffer The buffer or {@code null}
+     */
+    public void release(ByteBuffer buffer) {
+        if(buffer == null) return;
+
+        int capacity = buffer.capacity();
+        int shift = shiftFor(capacity);
+
+        // Ignores buffers that weren't created by the pool
+        if(shift > MAX_SHIFT || 1 << shift != capacity) return;
+        if(pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+
+        Queue<ByteBuffer>[] queues = buffer.isDirect() ? directBuffers : heapBuffers;
+        queues[shift - MIN_SHIFT].offer(buffer);
+    }
+
+    private ByteBuffer acquire(int size, boolean direct) {
+        int shift = shiftFor(size);
+
+        if(shift > MAX_SHIFT) {
+            // Too large to be pooled
+            return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        }
+
+        Queue<ByteBuffer>[] queues = direct ? directBuffers : heapBuffers;
+        ByteBuffer buffer = queues[shift - MIN_SHIFT].poll();
+
+        if(buffer == null) {
+            int capacity = 1 << shift;
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        } else {
+            pooledBytes.addAndGet(-buffer.capacity());
+            buffer.clear();
+        }
+
+        buffer.limit(size);
+        return buffer;
+    }
+
+    private static int shiftFor(int size) {
+        if(size <= 1 << MIN_SHIFT) return MIN_SHIFT;
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Queue<ByteBuffer>[] createQueues() {
+        Queue<ByteBuffer>[] queues = new Queue[MAX_SHIFT - MIN_SHIFT + 1];
+        for(int i = 0; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+        return queues;
+    }
+
+}
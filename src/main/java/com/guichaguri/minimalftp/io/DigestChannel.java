@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Channel that updates hash digests with the bytes written through it.
+ *
+ * Used to calculate the digests of uploaded files without reading them back.
+ *
+ * @author Guilherme Chaguri
+ */
+public class DigestChannel implements WritableByteChannel {
+
+    private final WritableByteChannel channel;
+    private final MessageDigest[] digests;
+    private long count = 0;
+
+    /**
+     * Creates a digest channel
+     * @param channel The underlying channel
+     * @param digests The digests that will be updated
+     */
+    public DigestChannel(WritableByteChannel channel, MessageDigest... digests) {
+        this.channel = channel;
+        this.digests = digests;
+    }
+
+    /**
+     * Gets the amount of bytes written
+     * @return The number of bytes
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Completes the digests, which can only be done once
+     * @return The hash digests by algorithm name
+     */
+    public Map<String, byte[]> getDigests() {
+        Map<String, byte[]> result = new LinkedHashMap<>();
+
+        for(MessageDigest digest : digests) {
+            result.put(digest.getAlgorithm(), digest.digest());
+        }
+
+        return result;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int position = src.position();
+        int written = channel.write(src);
+
+        if(written > 0) {
+            ByteBuffer view = src.duplicate();
+
+            for(MessageDigest digest : digests) {
+                view.limit(position + written);
+                view.position(position);
+                digest.update(view);
+            }
+
+            count += written;
+        }
+
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
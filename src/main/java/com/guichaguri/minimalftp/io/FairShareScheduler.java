@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits a bandwidth capacity between the active users proportionally to their weights.
+ *
+ * Each user has a token bucket shared by all of their transfers, so opening more connections
+ * doesn't increase their share. The rates are recalculated whenever a user starts or stops transferring.
+ *
+ * Users that don't use their whole share, such as transfers limited by the client or paused,
+ * leave tokens in a bucket of the whole capacity. Users that go over their share borrow from it,
+ * so the spare capacity is used by the others instead of being wasted.
+ *
+ * @author Guilherme Chaguri
+ */
+public class FairShareScheduler {
+
+    private final Map<String, Share> shares = new HashMap<>();
+    private final TokenBucket spare;
+    private long capacity;
+    private long totalWeight = 0;
+
+    /**
+     * Creates a scheduler
+     * @param capacity The total rate in bytes per second or {@code 0} for no limit
+     */
+    public FairShareScheduler(long capacity) {
+        this.capacity = capacity;
+        this.spare = new TokenBucket(capacity);
+    }
+
+    /**
+     * Gets the capacity shared between the users
+     * @return The total rate in bytes per second or {@code 0} for no limit
+     */
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the capacity shared between the users
+     * @param capacity The total rate in bytes per second or {@code 0} for no limit
+     */
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        spare.setRate(capacity);
+        rebalance();
+    }
+
+    /**
+     * Registers a transfer
+     * @param user The user key
+     * @param weight The user weight
+     * @return The bucket shared by the transfers of the user
+     */
+    public synchronized TokenBucket acquire(String user, int weight) {
+        Share share = shares.get(user);
+
+        if(share == null) {
+            share = new Share(Math.max(weight, 1), spare);
+            shares.put(user, share);
+            totalWeight += share.weight;
+            rebalance();
+        }
+
+        share.transfers++;
+        return share.bucket;
+    }
+
+    /**
+     * Unregisters a transfer
+     * @param user The user key
+     */
+    public synchronized void release(String user) {
+        Share share = shares.get(user);
+        if(share == null) return;
+
+        if(--share.transfers <= 0) {
+            shares.remove(user);
+            totalWeight -= share.weight;
+            rebalance();
+        }
+    }
+
+    private void rebalance() {
+        // The spare capacity only counts from when the current users started sharing it
+        spare.drain();
+
+        for(Share share : shares.values()) {
+            share.bucket.setRate(capacity > 0 ? Math.max(1, capacity * share.weight / totalWeight) : 0);
+        }
+    }
+
+    private static class Share {
+        final TokenBucket bucket;
+        final int weight;
+        int transfers = 0;
+
+        Share(int weight, TokenBucket spare) {
+            this.bucket = new ShareBucket(spare);
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Bucket of a user share, which borrows the capacity left unused by the other users
+     */
+    private static class ShareBucket extends TokenBucket {
+        private final TokenBucket spare;
+
+        ShareBucket(TokenBucket spare) {
+            super(0);
+            this.spare = spare;
+        }
+
+        @Override
+        public long reserve(long bytes) {
+            long wait = super.reserve(bytes);
+
+            if(wait > 0 && spare.tryReserve(bytes)) {
+                // The aggregate is below the capacity, so the share doesn't need to be used
+                refund(bytes);
+                return 0;
+            }
+
+            // Every transfer is counted in the spare bucket, which only keeps the unused capacity
+            spare.reserve(bytes);
+            return wait;
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import com.guichaguri.minimalftp.api.IFileSystem;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sparse index that maps offsets of the ASCII representation of a file (CRLF line breaks)
+ * to offsets of the file itself (LF line breaks).
+ *
+ * A checkpoint is recorded every {@link #STRIDE} bytes of the file while it's scanned,
+ * so restarting an ASCII transfer only needs to scan from the nearest checkpoint.
+ * Indexes are cached and discarded when the file size or modification time changes.
+ *
+ * @author Guilherme Chaguri
+ */
+public class LineOffsetIndex {
+
+    private static final int STRIDE = 1024 * 1024;
+    private static final int MAX_CACHED = 32;
+
+    private static final Map<Key, LineOffsetIndex> cache = new LinkedHashMap<Key, LineOffsetIndex>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, LineOffsetIndex> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    /**
+     * Opens a file at the position that corresponds to an offset of its ASCII representation
+     * @param fs The file system
+     * @param file The file object
+     * @param start The offset in the ASCII representation
+     * @param pool The pool the scanning buffer is acquired from
+     * @return The input stream, positioned at the file offset
+     * @throws IOException When an error occurs or the offset is past the end of the file
+     * @see RestartInputStream#isAfterCR()
+     */
+    public static <F> RestartInputStream open(IFileSystem<F> fs, F file, long start, BufferPool pool) throws IOException {
+        Key key = new Key(fs, fs.getPath(file));
+        long size = fs.getSize(file);
+        long lastModified = fs.getLastModified(file);
+        LineOffsetIndex index;
+
+        synchronized(cache) {
+            index = cache.get(key);
+
+            if(index == null || index.size != size || index.lastModified != lastModified) {
+                index = new LineOffsetIndex(size, lastModified);
+                cache.put(key, index);
+            }
+        }
+
+        return index.find(fs, file, start, pool);
+    }
+
+    private final long size;
+    private final long lastModified;
+
+    // Checkpoints: file offset, ASCII offset and whether the previous byte was a CR
+    private long[] rawOffsets = new long[16];
+    private long[] asciiOffsets = new long[16];
+    private boolean[] afterCR = new boolean[16];
+    private int checkpoints = 1;
+
+    private LineOffsetIndex(long size, long lastModified) {
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Opens the file at the file offset for an ASCII offset.
+     *
+     * When the ASCII offset falls between the CR and LF of a translated line break,
+     * the file is opened at the LF, marked as already preceded by a CR.
+     *
+     * @param fs The file system
+     * @param file The file object
+     * @param start The ASCII offset
+     * @param pool The pool the scanning buffer is acquired from
+     * @return The input stream, positioned at the file offset
+     * @throws IOException When an error occurs or the offset is past the end of the file
+     */
+    private synchronized <F> RestartInputStream find(IFileSystem<F> fs, F file, long start, BufferPool pool) throws IOException {
+        // Finds the last checkpoint before the ASCII offset
+        int i = Arrays.binarySearch(asciiOffsets, 0, checkpoints, start);
+        int checkpoint = i >= 0 ? i : -i - 2;
+
+        long raw = rawOffsets[checkpoint];
+        long ascii = asciiOffsets[checkpoint];
+        boolean cr = afterCR[checkpoint];
+
+        if(ascii == start) return new RestartInputStream(fs.readFile(file, raw), cr);
+
+        ByteBuffer buf = pool.acquireHeap(8192);
+
+        try(InputStream in = fs.readFile(file, raw)) {
+            byte[] buffer = buf.array();
+            int len;
+
+            while((len = in.read(buffer, 0, buf.limit())) != -1) {
+                for(int j = 0; j < len; j++) {
+                    if(raw % STRIDE == 0 && raw > rawOffsets[checkpoints - 1]) {
+                        addCheckpoint(raw, ascii, cr);
+                    }
+
+                    byte b = buffer[j];
+                    ascii += b == '\n' && !cr ? 2 : 1;
+                    cr = b == '\r';
+
+                    // The offset is between the CR and the LF, so only the LF is left to be sent
+                    if(ascii > start) return new RestartInputStream(fs.readFile(file, raw), true);
+
+                    raw++;
+                    if(ascii == start) return new RestartInputStream(fs.readFile(file, raw), cr);
+                }
+            }
+        } finally {
+            pool.release(buf);
+        }
+
+        throw new IOException("Couldn't skip this file. End of the file was reached");
+    }
+
+    private void addCheckpoint(long raw, long ascii, boolean cr) {
+        if(checkpoints == rawOffsets.length) {
+            int length = checkpoints * 2;
+            rawOffsets = Arrays.copyOf(rawOffsets, length);
+            asciiOffsets = Arrays.copyOf(asciiOffsets, length);
+            afterCR = Arrays.copyOf(afterCR, length);
+        }
+
+        rawOffsets[checkpoints] = raw;
+        asciiOffsets[checkpoints] = ascii;
+        afterCR[checkpoints] = cr;
+        checkpoints++;
+    }
+
+    /**
+     * A file stream opened at a restart offset
+     */
+    public static class RestartInputStream extends FilterInputStream {
+
+        private final boolean afterCR;
+
+        RestartInputStream(InputStream in, boolean afterCR) {
+            super(in);
+            this.afterCR = afterCR;
+        }
+
+        /**
+         * Whether the data sent before the offset ended with a CR.
+         *
+         * The translator should start in that state, so a LF right at the offset isn't preceded by another CR.
+         *
+         * @return {@code true} if it ended with a CR
+         * @see AsciiTranslator#AsciiTranslator(boolean)
+         */
+        public boolean isAfterCR() {
+            return afterCR;
+        }
+    }
+
+    /**
+     * Identifies a file of a specific file system
+     */
+    private static class Key {
+        private final IFileSystem<?> fs;
+        private final String path;
+
+        Key(IFileSystem<?> fs, String path) {
+            this.fs = fs;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) return false;
+            Key key = (Key)o;
+            return fs == key.fs && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(fs) * 31 + path.hashCode();
+        }
+    }
+
+}
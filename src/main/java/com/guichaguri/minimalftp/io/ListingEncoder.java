@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import com.guichaguri.minimalftp.api.FileAttributes;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes a listing as UTF-8 into a data connection, an entry at a time.
+ *
+ * The text is encoded into a fixed size buffer, which is written whenever it's full,
+ * so the memory used doesn't depend on the size of the listing.
+ *
+ * @author Guilherme Chaguri
+ */
+public class ListingEncoder implements Closeable {
+
+    private final OutputStream out;
+    private final BufferPool pool;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final AsciiTranslator translator;
+
+    private ByteBuffer buffer;
+    private ByteBuffer translated;
+    private long count = 0;
+
+    /**
+     * Creates a listing encoder
+     * @param out The data output
+     * @param pool The pool the buffers are acquired from
+     * @param bufferSize The size of the buffer
+     * @param ascii Whether line breaks are translated to the network ASCII format
+     */
+    public ListingEncoder(OutputStream out, BufferPool pool, int bufferSize, boolean ascii) {
+        this.out = out;
+        this.pool = pool;
+        this.buffer = pool.acquireHeap(bufferSize);
+        this.translator = ascii ? new AsciiTranslator() : null;
+        this.translated = ascii ? pool.acquireHeap(buffer.capacity() * 2) : null;
+    }
+
+    /**
+     * Gets the amount of bytes written so far
+     * @return The number of bytes
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Encodes text, such as an entry of the listing
+     * @param text The text
+     * @throws IOException When an error occurs
+     */
+    public void write(CharSequence text) throws IOException {
+        int length = text.length();
+        int i = 0;
+
+        // Most names are ASCII, which can be copied without going through the encoder
+        for(; i < length; i++) {
+            char c = text.charAt(i);
+            if(c >= 0x80) break;
+
+            if(!buffer.hasRemaining()) flushBuffer();
+            buffer.put((byte)c);
+        }
+
+        if(i < length) encode(CharBuffer.wrap(text, i, length));
+    }
+
+    /**
+     * Writes a single byte that is already encoded
+     * @param b The byte
+     * @throws IOException When an error occurs
+     */
+    public void write(int b) throws IOException {
+        if(!buffer.hasRemaining()) flushBuffer();
+        buffer.put((byte)b);
+    }
+
+    private void encode(CharBuffer chars) throws IOException {
+        while(true) {
+            CoderResult result = encoder.encode(chars, buffer, false);
+            if(!result.isOverflow()) break;
+
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Writes bytes that are already encoded, such as a cached listing
+     * @param bytes The UTF-8 bytes
+     * @param off The offset of the first byte
+     * @param len The amount of bytes
+     * @throws IOException When an error occurs
+     */
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        while(len > 0) {
+            if(!buffer.hasRemaining()) flushBuffer();
+
+            int length = Math.min(len, buffer.remaining());
+            buffer.put(bytes, off, length);
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * Writes the buffered data to the data output
+     * @throws IOException When an error occurs
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Writes the remaining data and releases the buffers. The data output is not closed
+     * @throws IOException When an error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if(buffer == null) return;
+
+        try {
+            CharBuffer empty = CharBuffer.allocate(0);
+            while(encoder.encode(empty, buffer, true).isOverflow()) flushBuffer();
+            while(encoder.flush(buffer).isOverflow()) flushBuffer();
+
+            flush();
+        } finally {
+            pool.release(buffer);
+            pool.release(translated);
+            buffer = translated = null;
+        }
+    }
+
+    /**
+     * Releases the buffers without writing the remaining data, for when the listing failed
+     */
+    public void abort() {
+        if(buffer == null) return;
+
+        pool.release(buffer);
+        pool.release(translated);
+        buffer = translated = null;
+    }
+
+    private void flushBuffer() throws IOException {
+        int length = buffer.position();
+        if(length == 0) return;
+
+        if(translator != null) {
+            out.write(translated.array(), 0, translator.toNetwork(buffer.array(), 0, length, translated.array(), 0));
+        } else {
+            out.write(buffer.array(), 0, length);
+        }
+
+        count += length;
+        buffer.clear();
+    }
+
+    /**
+     * Writes the entries of a listing
+     */
+    @FunctionalInterface
+    public interface Writer {
+        void write(ListingEncoder encoder) throws IOException;
+    }
+
+    /**
+     * Writes a single entry of a listing
+     */
+    @FunctionalInterface
+    public interface Renderer<F> {
+        void render(ListingEncoder encoder, F file, FileAttributes attributes) throws IOException;
+    }
+
+}
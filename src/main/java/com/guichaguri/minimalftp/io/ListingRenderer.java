@@ -0,0 +1,299 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import com.guichaguri.minimalftp.api.FileAttributes;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Renders the lines of LIST, NLST and MLSD listings straight into a {@link ListingEncoder}.
+ *
+ * The output is the same as {@code Utils.format} and {@code Utils.getFacts}, but the permissions,
+ * month names and facts are precomputed and numbers are written digit by digit,
+ * so rendering an entry doesn't allocate any objects.
+ *
+ * A renderer is not thread-safe and should be used by one listing at a time.
+ *
+ * @author Guilherme Chaguri
+ */
+public class ListingRenderer {
+
+    private static final int FACT_MODIFY = 0;
+    private static final int FACT_SIZE = 1;
+    private static final int FACT_TYPE = 2;
+    private static final int FACT_PERM = 3;
+
+    private static final long SIX_MONTHS = 183L * 24L * 60L * 60L * 1000L;
+
+    private static final byte[][] PERMISSIONS = createPermissions();
+    private static final byte[][] FACT_PERMISSIONS = createFactPermissions();
+    private static final byte[][] MONTHS = toBytes("Jan", "Feb", "Mar", "Apr", "May", "Jun",
+                                                   "Jul", "Aug", "Sep", "Oct", "Nov", "Dec");
+
+    private static final byte[] MODIFY = toBytes("modify=")[0];
+    private static final byte[] SIZE = toBytes("size=")[0];
+    private static final byte[] TYPE_DIR = toBytes("type=dir;")[0];
+    private static final byte[] TYPE_FILE = toBytes("type=file;")[0];
+
+    private final int[] facts;
+    private final Calendar calendar = new GregorianCalendar(TimeZone.getDefault(), Locale.ENGLISH);
+    private final byte[] digits = new byte[20];
+
+    /**
+     * Creates a renderer for LIST and NLST listings
+     */
+    public ListingRenderer() {
+        this("");
+    }
+
+    /**
+     * Creates a renderer that also renders MLSD listings
+     * @param factOptions The enabled facts, separated by semicolons, as in the MLST option
+     */
+    public ListingRenderer(String factOptions) {
+        this.facts = parseFacts(factOptions);
+    }
+
+    /**
+     * Renders a LIST line
+     *
+     * {@code -rw-rw-rw-   1 owner    group         380 May 26 21:50 data.txt}
+     *
+     * @param encoder The listing encoder
+     * @param attributes The file attributes
+     * @throws IOException When an error occurs
+     */
+    public void writeList(ListingEncoder encoder, FileAttributes attributes) throws IOException {
+        byte[] perm = PERMISSIONS[(attributes.isDirectory() ? 01000 : 0) | (attributes.getMode() & 0777)];
+        encoder.write(perm, 0, perm.length);
+        encoder.write(' ');
+
+        writeNumber(encoder, attributes.getHardLinks(), 3);
+        encoder.write(' ');
+
+        writeText(encoder, String.valueOf(attributes.getOwner()), 8);
+        encoder.write(' ');
+
+        writeText(encoder, String.valueOf(attributes.getGroup()), 8);
+        encoder.write(' ');
+
+        writeNumber(encoder, attributes.getSize(), 8);
+        encoder.write(' ');
+
+        writeListTimestamp(encoder, attributes.getLastModified());
+        encoder.write(' ');
+
+        writeName(encoder, attributes.getName());
+    }
+
+    /**
+     * Renders a MLSD line with the enabled facts
+     *
+     * {@code modify=20170526215012;size=380;type=file;perm=rfadw; data.txt}
+     *
+     * @param encoder The listing encoder
+     * @param attributes The file attributes
+     * @throws IOException When an error occurs
+     */
+    public void writeFacts(ListingEncoder encoder, FileAttributes attributes) throws IOException {
+        boolean dir = attributes.isDirectory();
+
+        for(int fact : facts) {
+            if(fact == FACT_MODIFY) {
+                encoder.write(MODIFY, 0, MODIFY.length);
+                writeMdtmTimestamp(encoder, attributes.getLastModified());
+                encoder.write(';');
+            } else if(fact == FACT_SIZE) {
+                encoder.write(SIZE, 0, SIZE.length);
+                writeNumber(encoder, attributes.getSize(), 0);
+                encoder.write(';');
+            } else if(fact == FACT_TYPE) {
+                byte[] type = dir ? TYPE_DIR : TYPE_FILE;
+                encoder.write(type, 0, type.length);
+            } else if(fact == FACT_PERM) {
+                byte[] perm = FACT_PERMISSIONS[(dir ? 4 : 0) | (attributes.getPermissions() >> 7 & 3)];
+                encoder.write(perm, 0, perm.length);
+            }
+        }
+
+        encoder.write(' ');
+        writeName(encoder, attributes.getName());
+    }
+
+    /**
+     * Renders a NLST line, which only has the file name
+     * @param encoder The listing encoder
+     * @param name The file name
+     * @throws IOException When an error occurs
+     */
+    public void writeName(ListingEncoder encoder, String name) throws IOException {
+        encoder.write(name);
+        encoder.write('\r');
+        encoder.write('\n');
+    }
+
+    private void writeListTimestamp(ListingEncoder encoder, long time) throws IOException {
+        calendar.setTimeInMillis(time);
+
+        byte[] month = MONTHS[calendar.get(Calendar.MONTH)];
+        encoder.write(month, 0, month.length);
+        encoder.write(' ');
+        writeDigits(encoder, calendar.get(Calendar.DAY_OF_MONTH), 2);
+        encoder.write(' ');
+
+        if(System.currentTimeMillis() - time > SIX_MONTHS) {
+            writeDigits(encoder, calendar.get(Calendar.YEAR), 4);
+        } else {
+            writeDigits(encoder, calendar.get(Calendar.HOUR_OF_DAY), 2);
+            encoder.write(':');
+            writeDigits(encoder, calendar.get(Calendar.MINUTE), 2);
+        }
+    }
+
+    private void writeMdtmTimestamp(ListingEncoder encoder, long time) throws IOException {
+        calendar.setTimeInMillis(time);
+
+        writeDigits(encoder, calendar.get(Calendar.YEAR), 4);
+        writeDigits(encoder, calendar.get(Calendar.MONTH) + 1, 2);
+        writeDigits(encoder, calendar.get(Calendar.DAY_OF_MONTH), 2);
+        writeDigits(encoder, calendar.get(Calendar.HOUR_OF_DAY), 2);
+        writeDigits(encoder, calendar.get(Calendar.MINUTE), 2);
+        writeDigits(encoder, calendar.get(Calendar.SECOND), 2);
+    }
+
+    /**
+     * Writes a number right-aligned with spaces
+     */
+    private void writeNumber(ListingEncoder encoder, long number, int width) throws IOException {
+        int start = toDigits(number);
+        for(int i = digits.length - start; i < width; i++) encoder.write(' ');
+
+        encoder.write(digits, start, digits.length - start);
+    }
+
+    /**
+     * Writes a number padded with zeros
+     */
+    private void writeDigits(ListingEncoder encoder, int number, int width) throws IOException {
+        int start = toDigits(number);
+        for(int i = digits.length - start; i < width; i++) encoder.write('0');
+
+        encoder.write(digits, start, digits.length - start);
+    }
+
+    /**
+     * Writes a text left-aligned with spaces
+     */
+    private void writeText(ListingEncoder encoder, String text, int width) throws IOException {
+        encoder.write(text);
+        for(int i = text.length(); i < width; i++) encoder.write(' ');
+    }
+
+    /**
+     * Converts a number to digits at the end of the digit buffer
+     * @return The index of the first digit
+     */
+    private int toDigits(long number) {
+        int i = digits.length;
+        boolean negative = number < 0;
+
+        do {
+            digits[--i] = (byte)('0' + Math.abs(number % 10));
+            number /= 10;
+        } while(number != 0);
+
+        if(negative) digits[--i] = '-';
+        return i;
+    }
+
+    private static int[] parseFacts(String options) {
+        String[] names = options.split(";");
+        int[] facts = new int[names.length];
+        int count = 0;
+
+        for(String name : names) {
+            if(name.equalsIgnoreCase("modify")) {
+                facts[count++] = FACT_MODIFY;
+            } else if(name.equalsIgnoreCase("size")) {
+                facts[count++] = FACT_SIZE;
+            } else if(name.equalsIgnoreCase("type")) {
+                facts[count++] = FACT_TYPE;
+            } else if(name.equalsIgnoreCase("perm")) {
+                facts[count++] = FACT_PERM;
+            }
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(facts, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Creates the permission columns of every mode, with the directory flag in the tenth bit
+     */
+    private static byte[][] createPermissions() {
+        byte[][] table = new byte[1024][];
+
+        for(int mode = 0; mode < table.length; mode++) {
+            byte[] perm = new byte[10];
+            perm[0] = (byte)((mode & 01000) != 0 ? 'd' : '-');
+
+            for(int bit = 0; bit < 9; bit++) {
+                perm[9 - bit] = (byte)((mode >> bit & 1) == 1 ? "xwr".charAt(bit % 3) : '-');
+            }
+
+            table[mode] = perm;
+        }
+
+        return table;
+    }
+
+    /**
+     * Creates the perm facts of every combination of the owner write and read bits, with the directory flag in the third bit
+     */
+    private static byte[][] createFactPermissions() {
+        byte[][] table = new byte[8][];
+
+        for(int i = 0; i < table.length; i++) {
+            boolean dir = (i & 4) != 0;
+            String perm = "perm=";
+
+            if((i & 2) != 0) perm += dir ? "el" : "r";
+            if((i & 1) != 0) perm += dir ? "fpcm" : "fadw";
+
+            table[i] = toBytes(perm + ";")[0];
+        }
+
+        return table;
+    }
+
+    private static byte[][] toBytes(String... texts) {
+        byte[][] bytes = new byte[texts.length][];
+
+        for(int i = 0; i < texts.length; i++) {
+            bytes[i] = texts[i].getBytes(StandardCharsets.US_ASCII);
+        }
+
+        return bytes;
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Channel that reads ahead from another channel in a separate thread.
+ *
+ * A reader thread fills a bounded ring of buffers from the underlying channel while the previous
+ * buffers are being consumed, so a slow source doesn't leave the network idle during every read.
+ * The reader thread stops when all buffers are waiting to be consumed.
+ *
+ * Errors of the reader thread are thrown by the read that would return the missing data.
+ *
+ * @author Guilherme Chaguri
+ */
+public class ReadAheadChannel implements ReadableByteChannel {
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final ReadableByteChannel channel;
+    private final BufferPool pool;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final long limit;
+
+    private ByteBuffer current = null;
+    private volatile IOException error = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a read-ahead channel and starts its reader thread
+     * @param channel The underlying channel
+     * @param pool The pool the buffers are acquired from
+     * @param bufferCount The amount of buffers in the ring
+     * @param bufferSize The size of each buffer
+     * @param limit The maximum amount of bytes to read or {@code -1} to read until the end of the channel
+     * @param threadFactory The factory that creates the reader thread
+     */
+    public ReadAheadChannel(ReadableByteChannel channel, BufferPool pool, int bufferCount, int bufferSize,
+                            long limit, ThreadFactory threadFactory) {
+        this.channel = channel;
+        this.pool = pool;
+        this.limit = limit < 0 ? Long.MAX_VALUE : limit;
+        this.free = new ArrayBlockingQueue<>(bufferCount + 1);
+        this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+
+        for(int i = 0; i < bufferCount; i++) {
+            free.add(pool.acquire(bufferSize));
+        }
+
+        Thread thread = threadFactory.newThread(this::fill);
+        thread.setName("FTP Read Ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if(closed) throw new ClosedChannelException();
+
+        if(current == null || !current.hasRemaining()) {
+            if(current != null) {
+                current.clear();
+                free.add(current);
+                current = null;
+            }
+
+            ByteBuffer next = take(filled);
+
+            if(next == END) {
+                // Keeps returning the end of the channel on the next reads
+                filled.add(END);
+
+                IOException ex = error;
+                if(ex != null) throw new IOException(ex.getMessage(), ex);
+                return -1;
+            }
+
+            current = next;
+        }
+
+        int length = Math.min(current.remaining(), dst.remaining());
+
+        if(length == current.remaining()) {
+            dst.put(current);
+        } else {
+            ByteBuffer slice = current.duplicate();
+            slice.limit(slice.position() + length);
+            dst.put(slice);
+            current.position(slice.position());
+        }
+
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Stops the reader thread and closes the underlying channel
+     * @throws IOException When an error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+
+        // Wakes up the reader thread in case it's waiting for a free buffer
+        free.add(END);
+
+        try {
+            finished.await();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while stopping the reader thread");
+        } finally {
+            pool.release(current);
+            current = null;
+
+            releaseAll(free);
+            releaseAll(filled);
+
+            channel.close();
+        }
+    }
+
+    private void releaseAll(BlockingQueue<ByteBuffer> queue) {
+        ByteBuffer buffer;
+        while((buffer = queue.poll()) != null) {
+            if(buffer != END) pool.release(buffer);
+        }
+    }
+
+    private ByteBuffer take(BlockingQueue<ByteBuffer> queue) throws InterruptedIOException {
+        try {
+            return queue.take();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the data");
+        }
+    }
+
+    /**
+     * Reads from the underlying channel into the free buffers. Runs in the reader thread
+     */
+    private void fill() {
+        long remaining = limit;
+
+        try {
+            while(remaining > 0) {
+                ByteBuffer buffer = free.take();
+
+                if(closed || buffer == END) {
+                    if(buffer != END) free.add(buffer);
+                    return;
+                }
+
+                if(buffer.remaining() > remaining) buffer.limit((int)remaining);
+
+                int length;
+                do {
+                    length = channel.read(buffer);
+                } while(length == 0 && buffer.hasRemaining());
+
+                if(length == -1 && buffer.position() == 0) {
+                    free.add(buffer);
+                    break;
+                }
+
+                remaining -= buffer.position();
+                buffer.flip();
+                filled.add(buffer);
+
+                if(length == -1) break;
+            }
+        } catch(IOException ex) {
+            error = ex;
+        } catch(InterruptedException ex) {
+            error = new InterruptedIOException("The reader thread was interrupted");
+        } finally {
+            filled.add(END);
+            finished.countDown();
+        }
+    }
+
+}
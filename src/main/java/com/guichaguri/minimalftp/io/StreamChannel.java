@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonReadableChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Adapts a stream into a {@link SeekableByteChannel}.
+ *
+ * Streams can't seek backwards, so the position can only move forward while reading.
+ *
+ * @author Guilherme Chaguri
+ */
+public class StreamChannel implements SeekableByteChannel {
+
+    private final InputStream in;
+    private final OutputStream out;
+    private long position;
+    private long size;
+    private byte[] buffer = null;
+    private boolean open = true;
+
+    /**
+     * Creates a readable channel
+     * @param in The input stream
+     * @param start The position the stream starts at
+     * @param size The total size of the data
+     */
+    public StreamChannel(InputStream in, long start, long size) {
+        this.in = in;
+        this.out = null;
+        this.position = start;
+        this.size = size;
+    }
+
+    /**
+     * Creates a writable channel
+     * @param out The output stream
+     * @param start The position the stream starts at
+     */
+    public StreamChannel(OutputStream out, long start) {
+        this.in = null;
+        this.out = out;
+        this.position = start;
+        this.size = start;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if(!open) throw new ClosedChannelException();
+        if(in == null) throw new NonReadableChannelException();
+
+        int len;
+
+        if(dst.hasArray()) {
+            len = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if(len > 0) dst.position(dst.position() + len);
+        } else {
+            byte[] buf = getBuffer(dst.remaining());
+            len = in.read(buf, 0, Math.min(buf.length, dst.remaining()));
+            if(len > 0) dst.put(buf, 0, len);
+        }
+
+        if(len > 0) position += len;
+        return len;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if(!open) throw new ClosedChannelException();
+        if(out == null) throw new NonWritableChannelException();
+
+        int len = src.remaining();
+
+        if(src.hasArray()) {
+            out.write(src.array(), src.arrayOffset() + src.position(), len);
+            src.position(src.limit());
+        } else {
+            byte[] buf = getBuffer(len);
+
+            while(src.hasRemaining()) {
+                int l = Math.min(buf.length, src.remaining());
+                src.get(buf, 0, l);
+                out.write(buf, 0, l);
+            }
+        }
+
+        position += len;
+        size = Math.max(size, position);
+        return len;
+    }
+
+    @Override
+    public long position() throws IOException {
+        return position;
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        if(!open) throw new ClosedChannelException();
+        if(newPosition == position) return this;
+
+        if(in == null || newPosition < position) {
+            throw new UnsupportedOperationException("Streams can only skip forward while reading");
+        }
+
+        while(position < newPosition) {
+            long skipped = in.skip(newPosition - position);
+            if(skipped <= 0) break;
+            position += skipped;
+        }
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new UnsupportedOperationException("Streams can't be truncated");
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(!open) return;
+        open = false;
+
+        if(in != null) in.close();
+        if(out != null) out.close();
+    }
+
+    private byte[] getBuffer(int size) {
+        if(buffer == null) buffer = new byte[Math.min(Math.max(size, 1024), 8192)];
+        return buffer;
+    }
+
+}
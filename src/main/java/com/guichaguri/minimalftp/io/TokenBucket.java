@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+/**
+ * Token bucket that limits a transfer rate.
+ *
+ * Instead of waiting for the tokens to be available, callers reserve them upfront, possibly
+ * leaving the bucket in debt, and sleep for the returned time. No background thread is needed.
+ *
+ * @author Guilherme Chaguri
+ */
+public class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000D;
+
+    private long rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Creates a token bucket
+     * @param rate The rate in bytes per second or {@code 0} for no limit
+     */
+    public TokenBucket(long rate) {
+        this.rate = Math.max(rate, 0);
+        this.tokens = this.rate;
+    }
+
+    /**
+     * Gets the rate limit
+     * @return The rate in bytes per second or {@code 0} for no limit
+     */
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * Changes the rate limit, which affects the transfers already in progress.
+     *
+     * The bucket holds up to one second worth of tokens, so idle transfers can burst up to that.
+     *
+     * @param rate The rate in bytes per second or {@code 0} for no limit
+     */
+    public synchronized void setRate(long rate) {
+        refill(System.nanoTime());
+        this.rate = Math.max(rate, 0);
+        this.tokens = Math.min(tokens, this.rate);
+    }
+
+    /**
+     * Whether this bucket limits the rate
+     * @return {@code true} if there is a limit
+     */
+    public synchronized boolean isLimited() {
+        return rate > 0;
+    }
+
+    /**
+     * Takes tokens from the bucket
+     * @param bytes The amount of bytes to be transferred
+     * @return The time in nanoseconds the caller should wait before transferring
+     */
+    public synchronized long reserve(long bytes) {
+        if(rate <= 0) return 0;
+
+        refill(System.nanoTime());
+        tokens -= bytes;
+
+        return tokens >= 0 ? 0 : (long)(-tokens * NANOS_PER_SECOND / rate);
+    }
+
+    /**
+     * Takes tokens from the bucket only if they're available right away
+     * @param bytes The amount of bytes to be transferred
+     * @return Whether the tokens were taken
+     */
+    public synchronized boolean tryReserve(long bytes) {
+        if(rate <= 0) return true;
+
+        refill(System.nanoTime());
+        if(tokens < bytes) return false;
+
+        tokens -= bytes;
+        return true;
+    }
+
+    /**
+     * Gives back tokens that were reserved but not used
+     * @param bytes The amount of bytes
+     */
+    public synchronized void refund(long bytes) {
+        if(rate <= 0) return;
+
+        refill(System.nanoTime());
+        tokens = Math.min(rate, tokens + bytes);
+    }
+
+    /**
+     * Removes the stored tokens, so the next transfers can't burst
+     */
+    public synchronized void drain() {
+        refill(System.nanoTime());
+        tokens = Math.min(tokens, 0);
+    }
+
+    private void refill(long now) {
+        if(rate > 0) {
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / NANOS_PER_SECOND);
+        }
+        lastRefill = now;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Channel that writes to another channel in a separate thread.
+ *
+ * Written data is copied to a bounded ring of buffers, which a writer thread drains to the underlying channel.
+ * The caller only blocks when all buffers are waiting to be written, so reading from the network and
+ * writing to the disk can overlap.
+ *
+ * Errors of the writer thread are thrown by the next write or by {@link #close()}.
+ *
+ * @author Guilherme Chaguri
+ */
+public class WriteBehindChannel implements WritableByteChannel {
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final WritableByteChannel channel;
+    private final BufferPool pool;
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private ByteBuffer current = null;
+    private volatile IOException error = null;
+    private boolean closed = false;
+
+    /**
+     * Creates a write-behind channel and starts its writer thread
+     * @param channel The underlying channel
+     * @param pool The pool the buffers are acquired from
+     * @param bufferCount The amount of buffers in the ring
+     * @param bufferSize The size of each buffer
+     * @param threadFactory The factory that creates the writer thread
+     */
+    public WriteBehindChannel(WritableByteChannel channel, BufferPool pool, int bufferCount, int bufferSize, ThreadFactory threadFactory) {
+        this.channel = channel;
+        this.pool = pool;
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+
+        for(int i = 0; i < bufferCount; i++) {
+            free.add(pool.acquire(bufferSize));
+        }
+
+        Thread thread = threadFactory.newThread(this::drain);
+        thread.setName("FTP Write Behind");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if(closed) throw new ClosedChannelException();
+        checkError();
+
+        int length = src.remaining();
+
+        while(src.hasRemaining()) {
+            if(current == null) current = take(free);
+
+            if(src.remaining() <= current.remaining()) {
+                current.put(src);
+            } else {
+                ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + current.remaining());
+                current.put(slice);
+                src.position(slice.position());
+            }
+
+            if(!current.hasRemaining()) submit();
+        }
+
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Writes the remaining data, stops the writer thread and closes the underlying channel
+     * @throws IOException When the writer thread failed
+     */
+    @Override
+    public void close() throws IOException {
+        if(closed) return;
+        closed = true;
+
+        try {
+            if(current != null && current.position() > 0) submit();
+            filled.add(END);
+
+            finished.await();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the data");
+        } finally {
+            pool.release(current);
+            current = null;
+
+            ByteBuffer buffer;
+            while((buffer = free.poll()) != null) {
+                pool.release(buffer);
+            }
+
+            channel.close();
+        }
+
+        checkError();
+    }
+
+    private void submit() {
+        current.flip();
+        filled.add(current);
+        current = null;
+    }
+
+    private ByteBuffer take(BlockingQueue<ByteBuffer> queue) throws InterruptedIOException {
+        try {
+            return queue.take();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a buffer");
+        }
+    }
+
+    private void checkError() throws IOException {
+        IOException ex = error;
+        if(ex != null) throw new IOException(ex.getMessage(), ex);
+    }
+
+    /**
+     * Writes the filled buffers to the underlying channel. Runs in the writer thread
+     */
+    private void drain() {
+        try {
+            while(true) {
+                ByteBuffer buffer = filled.take();
+                if(buffer == END) break;
+
+                if(error == null) {
+                    try {
+                        while(buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    } catch(IOException ex) {
+                        // The remaining buffers are still returned, so the caller doesn't block forever
+                        error = ex;
+                    }
+                }
+
+                buffer.clear();
+                free.add(buffer);
+            }
+        } catch(InterruptedException ex) {
+            error = new InterruptedIOException("The writer thread was interrupted");
+        } finally {
+            finished.countDown();
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Guilherme Chaguri
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.guichaguri.minimalftp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Pool of deflaters and inflaters, which avoids allocating the native zlib state on every transfer
+ *
+ * @author Guilherme Chaguri
+ */
+public class ZlibPool {
+
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger deflaterCount = new AtomicInteger();
+    private final AtomicInteger inflaterCount = new AtomicInteger();
+    private final int maxPooled;
+
+    /**
+     * Creates a pool
+     * @param maxPooled The maximum amount of idle deflaters and inflaters kept, each
+     */
+    public ZlibPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Acquires a deflater
+     * @param level The compression level
+     * @return The deflater
+     */
+    public Deflater acquireDeflater(int level) {
+        Deflater deflater = deflaters.poll();
+
+        if(deflater == null) return new Deflater(level);
+
+        deflaterCount.decrementAndGet();
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /**
+     * Returns a deflater to the pool
+     * @param deflater The deflater
+     */
+    public void release(Deflater deflater) {
+        deflater.reset();
+
+        if(deflaterCount.incrementAndGet() > maxPooled) {
+            deflaterCount.decrementAndGet();
+            deflater.end();
+        } else {
+            deflaters.offer(deflater);
+        }
+    }
+
+    /**
+     * Acquires an inflater
+     * @return The inflater
+     */
+    public Inflater acquireInflater() {
+        Inflater inflater = inflaters.poll();
+
+        if(inflater == null) return new Inflater();
+
+        inflaterCount.decrementAndGet();
+        return inflater;
+    }
+
+    /**
+     * Returns an inflater to the pool
+     * @param inflater The inflater
+     */
+    public void release(Inflater inflater) {
+        inflater.reset();
+
+        if(inflaterCount.incrementAndGet() > maxPooled) {
+            inflaterCount.decrementAndGet();
+            inflater.end();
+        } else {
+            inflaters.offer(inflater);
+        }
+    }
+
+    /**
+     * Wraps a stream with a pooled deflater, which is returned when the stream is closed
+     * @param out The compressed output
+     * @param level The compression level
+     * @param bufferSize The buffer size in bytes
+     * @return The uncompressed output
+     */
+    public OutputStream deflate(OutputStream out, int level, int bufferSize) {
+        return new PooledDeflaterOutputStream(out, acquireDeflater(level), bufferSize);
+    }
+
+    /**
+     * Wraps a stream with a pooled inflater, which is returned when the stream is closed
+     * @param in The compressed input
+     * @param bufferSize The buffer size in bytes
+     * @return The uncompressed input
+     */
+    public InputStream inflate(InputStream in, int bufferSize) {
+        return new PooledInflaterInputStream(in, acquireInflater(), bufferSize);
+    }
+
+    private class PooledDeflaterOutputStream extends DeflaterOutputStream {
+
+        private boolean closed = false;
+
+        PooledDeflaterOutputStream(OutputStream out, Deflater deflater, int bufferSize) {
+            super(out, deflater, bufferSize);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closed) return;
+            closed = true;
+
+            try {
+                super.close();
+            } finally {
+                release(def);
+            }
+        }
+    }
+
+    private class PooledInflaterInputStream extends InflaterInputStream {
+
+        private boolean closed = false;
+
+        PooledInflaterInputStream(InputStream in, Inflater inflater, int bufferSize) {
+            super(in, inflater, bufferSize);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closed) return;
+            closed = true;
+
+            try {
+                super.close();
+            } finally {
+                release(inf);
+            }
+        }
+    }
+
+}